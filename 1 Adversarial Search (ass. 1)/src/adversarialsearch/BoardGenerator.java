@@ -0,0 +1,101 @@
+package adversarialsearch;
+
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+public class BoardGenerator {
+
+    // makes random boards in the format of board.txt: a wall all around, random walls inside,
+    // food and both agents on random free cells. the same seed always gives the same board.
+    // every free cell can be reached from every other one: after placing the walls we keep the
+    // biggest connected area, and fill up the rest with walls. so the real wall density can end up a
+    // bit higher than asked, and above ~0.4 (where random walls start cutting the board into pieces) a lot higher
+    //
+    // usage: java adversarialsearch.BoardGenerator <width> <height> <wallDensity> <food> <seed> [file]
+
+    public static void main(String[] args) throws IOException {
+        String text = generate(Integer.parseInt(args[0]), Integer.parseInt(args[1]),
+                Double.parseDouble(args[2]), Integer.parseInt(args[3]), Long.parseLong(args[4]));
+        if (args.length > 5) {
+            FileWriter out = new FileWriter(args[5]);
+            out.write(text);
+            out.close();
+        } else {
+            System.out.print(text);
+        }
+    }
+
+    // the board as text, ready for State.parse() or to save as a board file
+    public static String generate(int w, int h, double wallDensity, int food, long seed) {
+        if (w < 3 || h < 3) throw new IllegalArgumentException("board needs room inside the outer wall");
+        Random random = new Random(seed);
+        char[][] board = new char[h][w];
+
+        // outer wall, random walls inside
+        for (int row = 0; row < h; row++) {
+            for (int col = 0; col < w; col++) {
+                boolean border = row == 0 || col == 0 || row == h - 1 || col == w - 1;
+                board[row][col] = border || random.nextDouble() < wallDensity ? '#' : ' ';
+            }
+        }
+
+        // find the biggest connected area of free cells and wall up everything else
+        int[] area = new int[w * h]; // which area a cell belongs to (0 = wall or not visited yet)
+        int[] stack = new int[w * h];
+        int areas = 0, biggest = 0, biggestSize = 0;
+        for (int start = 0; start < w * h; start++) {
+            if (board[start / w][start % w] != ' ' || area[start] != 0) continue;
+            areas++;
+            int size = fill(board, area, stack, start, areas);
+            if (size > biggestSize) {
+                biggest = areas;
+                biggestSize = size;
+            }
+        }
+        if (biggestSize < food + 2) throw new IllegalArgumentException("not enough free cells for food and agents");
+
+        int[] free = new int[biggestSize];
+        int count = 0;
+        for (int cell = 0; cell < w * h; cell++) {
+            if (area[cell] == biggest) free[count++] = cell;
+            else board[cell / w][cell % w] = '#';
+        }
+
+        // shuffle the free cells (only as far as we need them), the first ones get the agents and the food
+        for (int i = 0; i < food + 2; i++) {
+            int j = i + random.nextInt(biggestSize - i);
+            int swap = free[i];
+            free[i] = free[j];
+            free[j] = swap;
+            board[free[i] / w][free[i] % w] = i == 0 ? 'A' : i == 1 ? 'B' : '*';
+        }
+
+        StringBuilder text = new StringBuilder(w + " " + h + "\n");
+        for (char[] row : board) {
+            text.append(row).append('\n');
+        }
+        return text.toString();
+    }
+
+    // flood fill the free cells connected to start with the number label, returns how many there are.
+    // uses an explicit stack, a recursive fill would overflow on big boards
+    static int fill(char[][] board, int[] area, int[] stack, int start, int label) {
+        int w = board[0].length;
+        int top = 0, size = 0;
+        stack[top++] = start;
+        area[start] = label;
+        while (top > 0) {
+            int cell = stack[--top];
+            size++;
+            int[] neighbours = { cell - w, cell + 1, cell + w, cell - 1 }; // the border is wall, so no need to check edges
+            for (int next : neighbours) {
+                if (area[next] == 0 && board[next / w][next % w] == ' ') {
+                    area[next] = label;
+                    stack[top++] = next;
+                }
+            }
+        }
+        return size;
+    }
+}
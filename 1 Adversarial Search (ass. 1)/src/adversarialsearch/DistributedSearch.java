@@ -0,0 +1,253 @@
+package adversarialsearch;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.Socket;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+
+public class DistributedSearch {
+
+    // coordinator for searching with several worker JVMs (see SearchWorker), for analyses that need
+    // more heap and cores than one JVM has. the root moves are the jobs: every worker takes the next
+    // root move, searches its subtree with alfabeta and sends back the value. every job is sent with
+    // the best value (alfa) found so far, so later subtrees are pruned with the bounds of earlier ones,
+    // and when a job raises alfa, the workers that are still searching get the new alfa right away.
+    // a value that comes back at or below the alfa its job was sent with is only an upper bound (the
+    // subtree was cut off), so such a move is only picked after searching it again with an open window.
+    // if a worker dies halfway a job, that job goes back in the queue for the other workers
+    // (and if all workers are dead, the coordinator searches what is left itself).
+
+    Vector<Socket> workers = new Vector<Socket>();
+    Vector<Process> processes = new Vector<Process>(); // the workers we started ourselves
+    int nodesVisited;   // nodes searched by everybody in the last search()
+    int reassigned;     // jobs that had to be searched again because a worker died
+    int boundsShared;   // new alfas sent to workers that were searching, in the last search()
+    double rootValue;   // value of the best root move in the last search(), like Game.rootValue
+
+    // the root moves of the current search, and their results
+    State root;
+    int forAgent, maxDepth;
+    Vector<String> moves;
+    double[] values;
+    boolean[] failedLow; // per job: the value is an upper bound, it was not above the alfa the job got
+    volatile double alfa;
+    ConcurrentLinkedQueue<Integer> jobs;
+    ConcurrentLinkedQueue<PrintWriter> feeding = new ConcurrentLinkedQueue<PrintWriter>(); // to the workers we feed jobs
+    CountDownLatch done;
+
+    // start <count> worker JVMs on this machine (same java and classpath as us) and connect to them
+    public void spawnWorkers(int count, int firstPort) throws IOException, InterruptedException {
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        for (int i = 0; i < count; i++) {
+            ProcessBuilder pb = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+                    "adversarialsearch.SearchWorker", "" + (firstPort + i));
+            pb.inheritIO();
+            processes.add(pb.start());
+        }
+        for (int i = 0; i < count; i++) {
+            connect("localhost", firstPort + i);
+        }
+    }
+
+    public void connect(String host, int port) throws InterruptedException, IOException {
+        // a worker that was just started may not be listening yet, so try for a few seconds
+        for (int attempt = 0; ; attempt++) {
+            try {
+                workers.add(new Socket(host, port));
+                return;
+            } catch (IOException e) {
+                if (attempt == 100) throw e;
+                Thread.sleep(50);
+            }
+        }
+    }
+
+    // like alfabeta(s, s.turn, maxDepth, 0, -inf, inf) on one Game, but the root moves are searched by the workers.
+    // returns the state after the best root move
+    public State search(State s, int maxDepth) throws InterruptedException {
+        if (s.isLeaf() || maxDepth == 0) return s;
+
+        root = s;
+        forAgent = s.turn;
+        this.maxDepth = maxDepth;
+        moves = s.legalMoves();
+        values = new double[moves.size()];
+        failedLow = new boolean[moves.size()];
+        alfa = Double.NEGATIVE_INFINITY;
+        jobs = new ConcurrentLinkedQueue<Integer>();
+        for (int i = 0; i < moves.size(); i++) jobs.add(i);
+        done = new CountDownLatch(moves.size());
+        nodesVisited = 1;
+        boundsShared = 0;
+
+        // one thread per worker, each keeps feeding its worker jobs until the queue is empty.
+        // a job of a worker that died can come back after the others stopped, so go again until all is done
+        while (!jobs.isEmpty() && !workers.isEmpty()) {
+            Vector<Thread> threads = new Vector<Thread>();
+            for (Socket worker : new Vector<Socket>(workers)) {
+                Thread t = new Thread(() -> feed(worker));
+                t.start();
+                threads.add(t);
+            }
+            for (Thread t : threads) t.join();
+        }
+
+        // all workers died: search whatever they left behind ourselves
+        Integer job;
+        Game local = new Game(null);
+        while ((job = jobs.poll()) != null) {
+            double sent = alfa;
+            local.nodesVisited = 0;
+            State result = local.alfabeta(child(job), forAgent, maxDepth, 1, sent, Double.POSITIVE_INFINITY);
+            finish(job, local.score(result, forAgent), local.nodesVisited, sent);
+        }
+        done.await();
+
+        // pick the best move in move order (not in the order the results came in), like alfabeta does:
+        // the first move with the highest value. only exact values count for that, the highest one of them
+        // is the value of the root (the move with the highest real value got an alfa below it, or the job
+        // that raised alfa that high is exact itself). a move before it that failed low with the same
+        // value may really be as good, so that one is searched again with an open window to know for sure
+        int best = -1;
+        for (int i = 0; i < values.length; i++) {
+            if (!failedLow[i] && (best < 0 || values[i] > values[best])) best = i;
+        }
+        for (int i = 0; i < best; i++) {
+            if (failedLow[i] && values[i] >= values[best]) {
+                local.nodesVisited = 0;
+                State result = local.alfabeta(child(i), forAgent, maxDepth, 1,
+                        Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+                nodesVisited += local.nodesVisited;
+                if (local.score(result, forAgent) >= values[best]) {
+                    best = i;
+                    break;
+                }
+            }
+        }
+        rootValue = values[best]; // a move that wins the tie has the same value
+        return child(best);
+    }
+
+    void feed(Socket worker) {
+        Integer job = null;
+        PrintWriter out = null;
+        try {
+            BufferedReader in = new BufferedReader(new InputStreamReader(worker.getInputStream()));
+            out = new PrintWriter(worker.getOutputStream(), true);
+            feeding.add(out);
+            while ((job = jobs.poll()) != null) {
+                synchronized (out) { // finish() can send a new alfa at the same time
+                    out.println("job " + job + " " + forAgent + " " + maxDepth + " " + alfa + " "
+                            + Double.POSITIVE_INFINITY + " " + SearchWorker.encode(child(job)));
+                }
+                String line = in.readLine();
+                if (line == null) throw new IOException("worker hung up");
+                String[] parts = line.split(" ");
+                // the worker says which alfa it ended with, the one we sent or a better one we sent later
+                finish(job, Double.parseDouble(parts[2]), Integer.parseInt(parts[3]), Double.parseDouble(parts[4]));
+                job = null;
+            }
+            feeding.remove(out);
+        } catch (IOException e) {
+            feeding.remove(out);
+            // this worker is gone, give its job to somebody else and stop using it
+            System.err.println("Worker " + worker.getPort() + " failed: " + e.getMessage());
+            if (job != null) {
+                jobs.add(job);
+                synchronized (this) {
+                    reassigned++;
+                }
+            }
+            workers.remove(worker);
+            try {
+                worker.close();
+            } catch (IOException closeFailed) {
+                // already gone, nothing to clean up
+            }
+        }
+    }
+
+    // a job is done, alfa is the highest bound it was searched with
+    synchronized void finish(int job, double value, int nodes, double alfa) {
+        values[job] = value;
+        failedLow[job] = value <= alfa;
+        nodesVisited += nodes;
+        if (value > this.alfa) {
+            // the root is a max node: share the better bound with the next jobs, and the ones still running
+            this.alfa = value;
+            for (PrintWriter out : feeding) {
+                synchronized (out) {
+                    out.println("alfa " + value);
+                }
+                boundsShared++;
+            }
+        }
+        done.countDown();
+    }
+
+    State child(int job) {
+        State child = root.copy();
+        child.execute(moves.get(job));
+        return child;
+    }
+
+    public void shutdown() {
+        for (Socket worker : workers) {
+            try {
+                new PrintWriter(worker.getOutputStream(), true).println("quit");
+                worker.close();
+            } catch (IOException e) {
+                // already gone, nothing to clean up
+            }
+        }
+        for (Process p : processes) p.destroy();
+    }
+
+    //////////////////////////////////////////////////
+    ///// DEMO: DISTRIBUTED VS SINGLE JVM SEARCH /////
+    //////////////////////////////////////////////////
+
+    // usage: java adversarialsearch.DistributedSearch [workers] [depth] [board file] [--kill]
+    // --kill kills one worker right after the search starts, to show its job gets re-assigned
+    public static void main(String[] args) throws Exception {
+        int count = args.length > 0 ? Integer.parseInt(args[0]) : 3;
+        int depth = args.length > 1 ? Integer.parseInt(args[1]) : 13;
+        State s = new State();
+        s.read(args.length > 2 ? args[2] : "data/board.txt");
+        boolean kill = args.length > 3 && args[3].equals("--kill");
+
+        DistributedSearch coordinator = new DistributedSearch();
+        coordinator.spawnWorkers(count, 4700);
+        if (kill) {
+            Process victim = coordinator.processes.get(0);
+            new Thread(() -> {
+                try {
+                    Thread.sleep(20);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                victim.destroyForcibly();
+            }).start();
+        }
+
+        long start = System.currentTimeMillis();
+        State best = coordinator.search(s, depth);
+        long time = System.currentTimeMillis() - start;
+        System.out.println("Distributed (" + count + " workers): " + best.moves.lastElement() + ", "
+                + coordinator.nodesVisited + " nodes, " + time + " ms, " + coordinator.reassigned + " jobs re-assigned");
+
+        Game single = new Game(s);
+        start = System.currentTimeMillis();
+        State expected = single.alfabeta(s, s.turn, depth, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+        time = System.currentTimeMillis() - start;
+        System.out.println("Single JVM: " + expected.moves.lastElement() + ", " + single.nodesVisited
+                + " nodes, " + time + " ms");
+
+        coordinator.shutdown();
+    }
+}
@@ -1,5 +1,6 @@
 package adversarialsearch;
 
+import java.util.Arrays;
 import java.util.Vector;
 
 public class Game {
@@ -7,11 +8,42 @@ public class Game {
     State b;           // our main game board state
     int nodesVisited;  // count how many game states we look at during search
 
+    TranspositionTable tt;  // positions searched before (null = don't use one), can be shared between games
+    long deadline;          // when a timed search() has to stop (0 = no time limit)
+    volatile boolean stop;  // set when the time is up, or by another thread to cancel the search
+    volatile boolean cancelled; // set by another thread to cancel this game's searches for good (search() clears stop, not this)
+    int searchDepth;        // deepest round search() completed
+    double rootValue;       // value alfabeta found for the root position in its last call
+    // a value forAgent already has somewhere above the root of the search, another thread can raise it
+    // while the search runs (a SearchWorker, when the coordinator found a better root move)
+    volatile double alfaFloor = Double.NEGATIVE_INFINITY;
+
+    // selective search options for alfabeta (all off by default, so alfabeta stays a full-width search)
+    boolean lateMoveReductions; // search late moves one ply less deep first, and only fully if they look good
+    boolean futilityPruning;    // stop near the horizon when nobody can catch up by eating the food left
+    static final int LMR_MOVES = 2;      // the first LMR_MOVES moves of a node are never reduced
+    static final int LMR_DEPTH = 3;      // only reduce when at least this many plies are left
+    static final int FUTILITY_DEPTH = 3; // only prune when at most this many plies are left
+    int reductions, researches, futilityPrunes; // how often the options kicked in
+
+    // repetition detection: agents can walk back and forth forever, so a position that is already
+    // on the current search path is not searched again, it is scored by the repetition rule instead
+    static final int REPETITION_OFF = 0;  // don't look for repetitions (search cycles like any other move)
+    static final int REPETITION_DRAW = 1; // a repeated position counts as a draw
+    static final int REPETITION_LOSS = 2; // the agent that walked back into a position loses
+    int repetitionRule = REPETITION_OFF;
+    long[] path = new long[64];  // hashes of the positions on the current search path, by depth
+    int repetitionsFound;
+
     public Game() {
         b = new State();                // create a fresh game state
         b.read("data/board.txt");       // load the starting board from file
     }
 
+    public Game(State b) {
+        this.b = b;                     // play from a board somebody else already made
+    }
+
     ////////////////////////
     ///// BASIC MINIMAX ////
     ////////////////////////
@@ -27,6 +59,11 @@ public class Game {
             return s; // this is as far as we can/need to look
         }
 
+        // been here before on this path? then we would only be searching the same moves again
+        if (repeated(s, depth)) {
+            return s;
+        }
+
         State bestState = null; // remember the best move we find here
 
         // figure out what the current player wants to accomplish
@@ -36,13 +73,12 @@ public class Game {
 
             // try every single move our agent could make right now
             for (String move : s.legalMoves()) {
-                State nextState = s.copy(); // make a copy so to not mess up the original game
-                nextState.execute(move);    // try making this move
+                State nextState = s.next(move); // try making this move (on a copy, so to not mess up the original game)
 
                 // now look ahead to see what happens after this move
                 // (the opponent will respond, then we'll respond to that, etc.)
                 State resultState = minimax(nextState, forAgent, maxDepth, depth + 1);
-                double value = resultState.value(forAgent); // how good is the final outcome?
+                double value = score(resultState, forAgent); // how good is the final outcome?
 
                 // if this move leads to a better result than what we've seen so far, remember it
                 if (value > bestValue) {
@@ -56,12 +92,11 @@ public class Game {
 
             // try every move the opponent could make
             for (String move : s.legalMoves()) {
-                State nextState = s.copy(); // copy the game state
-                nextState.execute(move);    // execute the opponent's move
+                State nextState = s.next(move); // execute the opponent's move on a copy of the game state
 
                 // see what happens after the opponent makes this move
                 State resultState = minimax(nextState, forAgent, maxDepth, depth + 1);
-                double value = resultState.value(forAgent); // how good is this for us?
+                double value = score(resultState, forAgent); // how good is this for us?
 
                 // the opponent will pick whichever move is WORST for us
                 if (value < bestValue) {
@@ -80,6 +115,14 @@ public class Game {
 
     public State alfabeta(State s, int forAgent, int maxDepth, int depth, double alfa, double beta) {
         nodesVisited++; // count this node visit
+        // the mark of futility pruning (see below) only holds for the last search of s, and s can be searched
+        // again: at full depth after a late move reduction found it looked good
+        s.decided = false;
+
+        // give up if a timed search ran out of time, the caller throws this round away
+        if (outOfTime()) {
+            return null;
+        }
 
         // stop searching if we've looked far enough ahead OR the game is over
         // (no point looking further if someone already won)
@@ -88,23 +131,64 @@ public class Game {
             return s;
         }
 
+        // been here before on this path? (only if we look for repetitions, see repetitionRule)
+        if (repeated(s, depth)) {
+            return s;
+        }
+        int repetitionsBefore = repetitionsFound; // to see if a repetition below changed our result
+
+        // futility pruning: close to the horizon, a position where the food left can't change who
+        // wins on food anymore is not worth searching further. it is marked, so score() gives it the
+        // win or loss the food decides instead of the 0 of a position that is not a leaf. never at the
+        // root, that has to return a move
+        if (futilityPruning && depth > 0 && maxDepth - depth <= FUTILITY_DEPTH && decidedByFood(s, forAgent) != 0) {
+            futilityPrunes++;
+            s.decided = true;
+            return s;
+        }
+
+        // somebody found a better bound for forAgent above our root while we were searching: every node under
+        // the root can use it, a value at or below it is only an upper bound now, like any value at or below alfa
+        if (alfa < alfaFloor) alfa = alfaFloor;
+
+        // did we search this position before? (only if we have a transposition table)
+        TranspositionTable.Entry entry = null;
+        if (tt != null) {
+            entry = tt.probe(ttKey(s, forAgent));
+            if (entry != null && entry.depth >= maxDepth - depth && (entry.flag == TranspositionTable.EXACT
+                    || entry.flag == TranspositionTable.LOWER && entry.value >= beta
+                    || entry.flag == TranspositionTable.UPPER && entry.value <= alfa)
+                    && s.legalMoves().contains(entry.move)) {
+                // we already searched this position at least this deep, and either know its value or know
+                // it falls outside our window anyway (a bound): just play the best move we found then again
+                if (depth == 0) rootValue = entry.value;
+                State nextState = s.next(entry.move);
+                return nextState;
+            }
+        }
+
+        double alfaIn = alfa, betaIn = beta; // remember the window, to know what kind of value we end up with
         State bestState = null;
+        String bestMove = null;
+        double bestValue;
 
         if (s.turn == forAgent) {
             // our turn - we want to maximize our score
-            double bestValue = Double.NEGATIVE_INFINITY;
+            bestValue = Double.NEGATIVE_INFINITY;
 
-            for (String move : s.legalMoves()) {
-                State nextState = s.copy();
-                nextState.execute(move);
+            int moveNumber = 0;
+            for (String move : orderedMoves(s, entry)) {
+                State nextState = s.next(move);
 
                 // keep searching deeper with our alpha-beta bounds
-                State resultState = alfabeta(nextState, forAgent, maxDepth, depth + 1, alfa, beta);
-                double value = resultState.value(forAgent);
+                State resultState = searchMove(nextState, moveNumber++, forAgent, maxDepth, depth, alfa, beta);
+                if (resultState == null) return null; // out of time somewhere below
+                double value = score(resultState, forAgent);
 
                 if (value > bestValue) {
                     bestValue = value;
                     bestState = nextState;
+                    bestMove = move;
                 }
 
                 // here's the alpha-beta magic: update our "guaranteed minimum" score
@@ -118,18 +202,20 @@ public class Game {
             }
         } else {
             // opponent's turn - they want to minimize our score
-            double bestValue = Double.POSITIVE_INFINITY;
+            bestValue = Double.POSITIVE_INFINITY;
 
-            for (String move : s.legalMoves()) {
-                State nextState = s.copy();
-                nextState.execute(move);
+            int moveNumber = 0;
+            for (String move : orderedMoves(s, entry)) {
+                State nextState = s.next(move);
 
-                State resultState = alfabeta(nextState, forAgent, maxDepth, depth + 1, alfa, beta);
-                double value = resultState.value(forAgent);
+                State resultState = searchMove(nextState, moveNumber++, forAgent, maxDepth, depth, alfa, beta);
+                if (resultState == null) return null; // out of time somewhere below
+                double value = score(resultState, forAgent);
 
                 if (value < bestValue) {
                     bestValue = value;
                     bestState = nextState;
+                    bestMove = move;
                 }
 
                 // update the opponent's "guaranteed maximum" (minimum for us)
@@ -142,9 +228,228 @@ public class Game {
             }
         }
 
+        // remember what we found, a value outside the window we got is only a bound on the real value.
+        // not if a repetition was scored below us: that depends on the path we came along, not just on s
+        if (tt != null && repetitionsFound == repetitionsBefore) {
+            int flag = bestValue <= alfaIn ? TranspositionTable.UPPER
+                    : bestValue >= betaIn ? TranspositionTable.LOWER : TranspositionTable.EXACT;
+            tt.store(ttKey(s, forAgent), maxDepth - depth, bestMove, bestValue, flag);
+        }
+        if (depth == 0) rootValue = bestValue;
+
         return bestState;
     }
 
+    // searches one move of a node (nextState is the state after it) for alfabeta.
+    // with lateMoveReductions, moves late in the list are searched one ply less deep first. moves that
+    // come late are usually bad (good ones get tried first), and if the shallow search agrees we keep
+    // that answer. only if it looks better than what we already have, we search it again at full depth
+    State searchMove(State nextState, int moveNumber, int forAgent, int maxDepth, int depth, double alfa, double beta) {
+        if (lateMoveReductions && moveNumber >= LMR_MOVES && maxDepth - depth >= LMR_DEPTH) {
+            State reduced = alfabeta(nextState, forAgent, maxDepth - 1, depth + 1, alfa, beta);
+            if (reduced == null) return null;
+            double value = score(reduced, forAgent);
+            boolean maximizing = nextState.turn != forAgent; // the move was made by the agent we search for
+            if (maximizing ? value <= alfa : value >= beta) {
+                reductions++;
+                return reduced; // not better than what we have, as expected
+            }
+            researches++; // surprise, it looked good: fall through to the full depth search
+        }
+        return alfabeta(nextState, forAgent, maxDepth, depth + 1, alfa, beta);
+    }
+
+    // 1 if agent wins on food even if the other one eats all the food that is left, -1 if it loses
+    // even when eating all of it itself, 0 if the food left can still change the result
+    int decidedByFood(State s, int agent) {
+        int lead = s.score[agent] - s.score[1 - agent];
+        if (lead > s.food) return 1;
+        if (-lead > s.food) return -1;
+        return 0;
+    }
+
+    // puts s on the search path and returns true (and marks s) if the same position is already
+    // on the path above it. always false with REPETITION_OFF
+    boolean repeated(State s, int depth) {
+        if (repetitionRule == REPETITION_OFF) return false;
+        if (depth >= path.length) path = Arrays.copyOf(path, path.length * 2);
+        path[depth] = s.hash;
+        for (int i = depth - 2; i >= 0; i -= 2) { // the same agent to move only every other ply
+            if (path[i] == s.hash) {
+                s.repeated = true;
+                repetitionsFound++;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // the value for forAgent of a state a search returned: the value of the game,
+    // unless the search stopped there because it was a repetition, then repetitionRule decides,
+    // or because futility pruning found the food decides the game already
+    double score(State s, int forAgent) {
+        if (s.decided) {
+            return decidedByFood(s, forAgent);
+        }
+        if (s.repeated && repetitionRule == REPETITION_LOSS) {
+            return 1 - s.turn == forAgent ? -1 : 1; // 1 - s.turn made the move that repeated
+        }
+        return s.value(forAgent); // REPETITION_DRAW: s is not a leaf, so value() is 0
+    }
+
+    // the legal moves of s, with the best move from the transposition table (if any) tried first,
+    // good moves first means alfabeta can prune the rest sooner
+    Vector<String> orderedMoves(State s, TranspositionTable.Entry entry) {
+        Vector<String> moves = s.legalMoves();
+        if (entry != null && entry.move != null && moves.remove(entry.move)) {
+            moves.add(0, entry.move);
+        }
+        return moves;
+    }
+
+    // values are stored for the agent we search for, so that agent is part of the table key
+    long ttKey(State s, int forAgent) {
+        return s.hash ^ State.key(State.TURN, 1 + forAgent);
+    }
+
+    boolean outOfTime() {
+        if (cancelled) stop = true;
+        // looking at the clock is slow-ish, so only do it every 1024 nodes
+        if (!stop && deadline != 0 && (nodesVisited & 1023) == 0 && System.currentTimeMillis() > deadline) {
+            stop = true;
+        }
+        return stop;
+    }
+
+    ////////////////////////////////////////////////
+    ///// ITERATIVE DEEPENING WITH TIME BUDGET /////
+    ////////////////////////////////////////////////
+
+    // search depth 1, 2, 3, ... with alfabeta until the time is up or maxDepth is done,
+    // and return the best move (the state after it) of the deepest round that finished.
+    // with a transposition table every round starts by trying the best moves of the round before
+    public State search(State s, long budgetMillis, int maxDepth) {
+        long end = System.currentTimeMillis() + budgetMillis;
+        State best = null;
+        stop = false;
+        searchDepth = 0;
+
+        for (int d = 1; d <= maxDepth; d++) {
+            deadline = d == 1 ? 0 : end; // always finish depth 1, so we have at least some move
+            State result = alfabeta(s, s.turn, d, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+            if (result == null) break; // time ran out halfway this round, keep the previous one
+            best = result;
+            searchDepth = d;
+            if (result == s || stop) break; // s is already a leaf, or we got cancelled
+        }
+
+        deadline = 0;
+        return best;
+    }
+
+    // the moves alfabeta expects both agents to play from s on (the principal variation),
+    // read back from the best moves in the transposition table. forAgent is who the search was for
+    public Vector<String> principalVariation(State s, int forAgent, int maxLength) {
+        Vector<String> line = new Vector<String>();
+        State current = s;
+        while (tt != null && line.size() < maxLength && !current.isLeaf()) {
+            TranspositionTable.Entry entry = tt.probe(ttKey(current, forAgent));
+            if (entry == null || !current.legalMoves().contains(entry.move)) break; // table doesn't know more
+            line.add(entry.move);
+            current = current.next(entry.move);
+        }
+        return line;
+    }
+
+    //////////////////////////////////////////////
+    ///// MULTI-PV: THE BEST k MOVES AT ONCE /////
+    //////////////////////////////////////////////
+
+    // one root move with the value the search found for it, and the line it expects after it
+    public static class PVLine {
+        public String move;
+        public double value;
+        public Vector<String> pv; // starts with move
+
+        PVLine(String move) {
+            this.move = move;
+            this.value = Double.NEGATIVE_INFINITY;
+        }
+
+        public String toString() {
+            return move + " " + value + " " + pv;
+        }
+    }
+
+    // the best k root moves of s, best first, from one iterative deepening search (depth 1, 2, ... until
+    // the time is up or maxDepth is done). every root move is searched with alfa = the k-th best value so far,
+    // so moves that can't make the top k are pruned like in alfabeta, and every round tries the root moves
+    // in the order of the round before. needs a transposition table for the pv lines: without one, a table
+    // is used just for this search (tt is null again afterwards)
+    public Vector<PVLine> multiPV(State s, int k, long budgetMillis, int maxDepth) {
+        TranspositionTable own = tt;
+        if (tt == null) tt = new TranspositionTable(20);
+        int forAgent = s.turn;
+        long end = System.currentTimeMillis() + budgetMillis;
+        stop = false;
+        searchDepth = 0;
+
+        // tt and deadline are put back however the search ends, an exception included
+        try {
+            path[0] = s.hash; // the root moves are searched at depth 1, so s has to be on the search path already
+            Vector<PVLine> lines = new Vector<PVLine>();
+            for (String move : s.legalMoves()) lines.add(new PVLine(move));
+            Vector<PVLine> best = new Vector<PVLine>();
+
+            for (int d = 1; d <= maxDepth && !s.isLeaf(); d++) {
+                deadline = d == 1 ? 0 : end; // always finish depth 1
+                double[] values = new double[lines.size()];
+                boolean outOfTime = false;
+
+                for (int i = 0; i < lines.size(); i++) {
+                    State child = s.next(lines.get(i).move);
+                    // the k-th best value of this round so far: a move has to beat it to get in the top k
+                    double alfa = kthBest(values, i, k);
+                    State result = alfabeta(child, forAgent, d, 1, alfa, Double.POSITIVE_INFINITY);
+                    if (result == null) {
+                        outOfTime = true;
+                        break;
+                    }
+                    values[i] = score(result, forAgent);
+                }
+                if (outOfTime) break; // keep the ranking of the last round that finished
+
+                for (int i = 0; i < lines.size(); i++) lines.get(i).value = values[i];
+                // best first; sort is stable, so equal values keep the order of the round before
+                lines.sort((a, b) -> Double.compare(b.value, a.value));
+                searchDepth = d;
+
+                best = new Vector<PVLine>();
+                for (int i = 0; i < Math.min(k, lines.size()); i++) {
+                    PVLine line = lines.get(i);
+                    PVLine copy = new PVLine(line.move);
+                    copy.value = line.value;
+                    State child = s.next(line.move);
+                    copy.pv = principalVariation(child, forAgent, d - 1);
+                    copy.pv.add(0, line.move);
+                    best.add(copy);
+                }
+            }
+            return best;
+        } finally {
+            deadline = 0;
+            tt = own;
+        }
+    }
+
+    // the k-th highest of the first n values (-infinity if there are less than k)
+    static double kthBest(double[] values, int n, int k) {
+        if (n < k) return Double.NEGATIVE_INFINITY;
+        double[] sorted = Arrays.copyOf(values, n);
+        Arrays.sort(sorted);
+        return sorted[n - k];
+    }
+
     ///////////////////////////////////////////////////////
     ///// TEST BOTH ALGORITHMS AND SEE THE DIFFERENCE /////
     ///////////////////////////////////////////////////////
@@ -210,4 +515,136 @@ public class Game {
         System.out.println("Food remaining: " + bestMove.food);
         System.out.println("Moves made: " + bestMove.moves);
     }
-}
\ No newline at end of file
+
+    ////////////////////////////////////////////////////////////
+    ///// MEASURE THE SELECTIVE SEARCH OPTIONS OF ALFABETA /////
+    ////////////////////////////////////////////////////////////
+
+    // the fixed set of boards we check the selective search options on
+    static final String[] REGRESSION_BOARDS = {
+            "data/regression/board1.txt", "data/regression/board2.txt", "data/regression/board3.txt",
+            "data/regression/board4.txt", "data/regression/board5.txt" };
+
+    // for every regression board: how many nodes each option saves compared to plain alfabeta,
+    // and whether it makes alfabeta choose a different move
+    public void testSelectiveSearch(int depth) {
+        System.out.println("Selective search options at depth " + depth);
+        System.out.println("=======================================");
+        System.out.println();
+        String[] names = { "late move reductions", "futility pruning", "both" };
+
+        for (String file : REGRESSION_BOARDS) {
+            State board = new State();
+            board.read(file);
+            System.out.println(file + ":");
+
+            lateMoveReductions = false;
+            futilityPruning = false;
+            nodesVisited = 0;
+            State plain = alfabeta(board, board.turn, depth, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+            int plainNodes = nodesVisited;
+            System.out.println("  plain alfabeta: " + plainNodes + " nodes, plays " + plain.moves.lastElement());
+
+            for (int option = 0; option < names.length; option++) {
+                lateMoveReductions = option != 1;
+                futilityPruning = option != 0;
+                nodesVisited = 0;
+                State result = alfabeta(board, board.turn, depth, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+                String move = result.moves.lastElement();
+                System.out.println("  " + names[option] + ": " + nodesVisited + " nodes ("
+                        + String.format("%.1f", 100.0 * (plainNodes - nodesVisited) / plainNodes) + "% saved), plays "
+                        + move + (move.equals(plain.moves.lastElement()) ? "" : "  <-- different move!"));
+            }
+            System.out.println();
+        }
+        lateMoveReductions = false;
+        futilityPruning = false;
+    }
+
+    ////////////////////////////////////////////
+    ///// MEASURE THE REPETITION DETECTION /////
+    ////////////////////////////////////////////
+
+    // nodes minimax and alfabeta visit on the main board with and without repetition detection
+    public void testRepetition(int depth) {
+        System.out.println("Repetition detection at depth " + depth);
+        System.out.println("=================================");
+        String[] names = { "off", "draw", "loss" };
+
+        for (int rule = REPETITION_OFF; rule <= REPETITION_LOSS; rule++) {
+            repetitionRule = rule;
+            nodesVisited = 0;
+            repetitionsFound = 0;
+            State minimaxResult = minimax(b, b.turn, depth, 0);
+            int minimaxNodes = nodesVisited;
+
+            nodesVisited = 0;
+            State alfabetaResult = alfabeta(b, b.turn, depth, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+            System.out.println("  repetitions " + names[rule] + ": minimax " + minimaxNodes + " nodes (plays "
+                    + minimaxResult.moves.lastElement() + "), alfabeta " + nodesVisited + " nodes (plays "
+                    + alfabetaResult.moves.lastElement() + "), " + repetitionsFound + " repetitions cut off");
+        }
+        repetitionRule = REPETITION_OFF;
+        System.out.println();
+    }
+
+    ///////////////////////////////////////////////
+    ///// MEASURE MULTI-PV AGAINST k SEARCHES /////
+    ///////////////////////////////////////////////
+
+    // the top k moves of every regression board: once with multiPV, and once the old way, with k
+    // separate alfabeta searches that each leave out the moves the searches before already picked.
+    // both get a fresh transposition table of the same size, so they search the same way
+    public void testMultiPV(int k, int depth) {
+        System.out.println("Multi-PV (top " + k + ") at depth " + depth);
+        System.out.println("==========================");
+        TranspositionTable own = tt;
+        for (String file : REGRESSION_BOARDS) {
+            State board = new State();
+            board.read(file);
+
+            tt = new TranspositionTable(20);
+            multiPV(board, k, Long.MAX_VALUE / 2, depth); // warm up the JIT, so the times compare fairly
+            tt = new TranspositionTable(20);
+            nodesVisited = 0;
+            long start = System.currentTimeMillis();
+            Vector<PVLine> lines = multiPV(board, k, Long.MAX_VALUE / 2, depth);
+            long multiTime = System.currentTimeMillis() - start;
+            int multiNodes = nodesVisited;
+
+            // k separate searches, like alfabeta's root but without the moves picked already
+            tt = new TranspositionTable(20);
+            nodesVisited = 0;
+            start = System.currentTimeMillis();
+            Vector<String> picked = new Vector<String>();
+            path[0] = board.hash;
+            for (int i = 0; i < k; i++) {
+                double alfa = Double.NEGATIVE_INFINITY;
+                String bestMove = null;
+                for (String move : board.legalMoves()) {
+                    if (picked.contains(move)) continue;
+                    State child = board.copy();
+                    child.execute(move);
+                    double value = score(alfabeta(child, board.turn, depth, 1, alfa, Double.POSITIVE_INFINITY), board.turn);
+                    if (bestMove == null || value > alfa) {
+                        alfa = value;
+                        bestMove = move;
+                    }
+                }
+                if (bestMove == null) break; // less than k legal moves
+                picked.add(bestMove);
+            }
+            long separateTime = System.currentTimeMillis() - start;
+
+            System.out.println(file + ":");
+            System.out.println("  multi-PV:            " + multiNodes + " nodes, " + multiTime + " ms");
+            System.out.println("  " + k + " separate searches: " + nodesVisited + " nodes, " + separateTime + " ms");
+            for (PVLine line : lines) System.out.println("    " + line);
+            if (!lines.isEmpty() && !picked.isEmpty() && !lines.get(0).move.equals(picked.get(0))) {
+                System.out.println("    <-- multi-PV's best move is not " + picked.get(0) + "!");
+            }
+        }
+        tt = own;
+        System.out.println();
+    }
+}
@@ -4,5 +4,11 @@ public class Main {
 		System.out.println("Hello World");
 		Game g=new Game();
 		g.test();
+		//the experiments with the search options take long, so they only run with the argument experiments
+		if (args.length>0 && args[0].equals("experiments")) {
+			g.testSelectiveSearch(13);
+			g.testRepetition(13);
+			g.testMultiPV(3, 13);
+		}
 	}
 }
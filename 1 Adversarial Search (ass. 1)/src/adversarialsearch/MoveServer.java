@@ -0,0 +1,194 @@
+package adversarialsearch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+public class MoveServer {
+
+    // runs the engine as a long-lived service, so we pay JVM startup, JIT warm-up and an empty
+    // transposition table only once instead of on every move (like Main does).
+    //
+    // protocol, one line per request (stdin/stdout, or over a socket with --port):
+    //   move <id> <turn> <budgetMs> <row/row/.../row>   board rows as in board.txt, separated by '/'
+    //   stats                                           latency percentiles of all answered moves
+    //   quit
+    // answer to a move (answers can come back in a different order than the requests):
+    //   <id> <move> <value> <depth> <nodes> <latencyMs>
+    //
+    // usage: java adversarialsearch.MoveServer [--port N] [--threads N] [--queue N] [--maxdepth N]
+
+    TranspositionTable tt = new TranspositionTable(20); // shared by all requests, ~1M entries
+    ThreadPoolExecutor pool;
+    ThreadLocal<Game> games;  // one Game per worker thread (a Game counts nodes, so it can't be shared)
+    int maxDepth;
+
+    // latencies (request received -> answer written) of the last SAMPLES requests, in microseconds
+    static final int SAMPLES = 100000;
+    long[] latencies = new long[SAMPLES];
+    long answered;
+
+    public MoveServer(int threads, int queueSize, int maxDepth) {
+        this.maxDepth = maxDepth;
+        // bounded pool: when the queue is full the thread that reads requests runs the search itself,
+        // which stops it from reading more requests until things calm down
+        pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(queueSize), new ThreadPoolExecutor.CallerRunsPolicy());
+        games = ThreadLocal.withInitial(() -> {
+            Game g = new Game(null);
+            g.tt = tt;
+            return g;
+        });
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = -1, threads = Runtime.getRuntime().availableProcessors(), queue = 64, maxDepth = 40;
+        for (int i = 0; i + 1 < args.length; i += 2) {
+            switch (args[i]) {
+                case "--port": port = Integer.parseInt(args[i + 1]); break;
+                case "--threads": threads = Integer.parseInt(args[i + 1]); break;
+                case "--queue": queue = Integer.parseInt(args[i + 1]); break;
+                case "--maxdepth": maxDepth = Integer.parseInt(args[i + 1]); break;
+            }
+        }
+        MoveServer server = new MoveServer(threads, queue, maxDepth);
+        server.warmUp();
+
+        if (port < 0) {
+            // a single client on stdin/stdout
+            PrintWriter out = new PrintWriter(System.out, true);
+            server.serve(new BufferedReader(new InputStreamReader(System.in)), out);
+            server.pool.shutdown(); // input is done, let the searches that are still running finish
+            try {
+                server.pool.awaitTermination(1, TimeUnit.HOURS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            out.println(server.stats());
+        } else {
+            // many clients, one connection thread each, all sharing the same worker pool
+            ServerSocket socket = new ServerSocket(port);
+            System.err.println("MoveServer listening on port " + port);
+            while (true) {
+                Socket client = socket.accept();
+                new Thread(() -> {
+                    try {
+                        server.serve(new BufferedReader(new InputStreamReader(client.getInputStream())),
+                                new PrintWriter(client.getOutputStream(), true));
+                        client.close();
+                    } catch (IOException e) {
+                        System.err.println("client connection failed: " + e);
+                    }
+                }).start();
+            }
+        }
+    }
+
+    // search the default board a few times so the JIT has compiled alfabeta before real requests come in
+    void warmUp() {
+        Game g = games.get();
+        State start = new State();
+        start.read("data/board.txt");
+        for (int i = 0; i < 5; i++) {
+            g.search(start, 200, maxDepth);
+        }
+        tt.clear(); // keep the compiled code, but don't let the warm-up board fill the table
+    }
+
+    // reads requests from one client until it says quit or hangs up
+    void serve(BufferedReader in, PrintWriter out) throws IOException {
+        String line;
+        while ((line = in.readLine()) != null) {
+            long received = System.nanoTime();
+            if (line.equals("quit")) {
+                break;
+            } else if (line.equals("stats")) {
+                synchronized (out) {
+                    out.println(stats());
+                }
+            } else if (line.startsWith("move ")) {
+                String request = line;
+                pool.execute(() -> answer(request, received, out));
+            } else if (!line.trim().isEmpty()) {
+                synchronized (out) {
+                    out.println("error unknown request: " + line);
+                }
+            }
+        }
+    }
+
+    // runs on a worker thread: parse the request, search it and write the answer
+    void answer(String request, long received, PrintWriter out) {
+        String[] parts = request.split(" ", 5); // the board is the rest of the line, it contains spaces
+        String id = parts.length > 1 ? parts[1] : "?";
+        String reply;
+        try {
+            int turn = Integer.parseInt(parts[2]);
+            long budget = Long.parseLong(parts[3]);
+            State s = parseBoard(parts[4]);
+            s.turn = turn;
+            s.hash = s.computeHash(); // we changed the turn by hand
+
+            Game g = games.get();
+            g.nodesVisited = 0;
+            State best = g.search(s, budget, maxDepth);
+            String move = best == s ? "none" : best.moves.lastElement(); // "none" when the game is already over
+            reply = id + " " + move + " " + g.rootValue + " " + g.searchDepth + " " + g.nodesVisited;
+        } catch (Exception e) {
+            reply = id + " error " + e;
+        }
+
+        long micros = (System.nanoTime() - received) / 1000;
+        record(micros);
+        synchronized (out) {
+            out.println(reply + " " + (micros / 1000.0));
+        }
+    }
+
+    static State parseBoard(String rows) {
+        String[] lines = rows.split("/");
+        int w = lines[0].length();
+        StringBuilder text = new StringBuilder(w + " " + lines.length + "\n");
+        for (String row : lines) {
+            if (row.length() != w) throw new IllegalArgumentException("rows of different length");
+            text.append(row).append('\n');
+        }
+        State s = new State();
+        s.parse(text.toString());
+        return s;
+    }
+
+    //////////////////////////////
+    ///// LATENCY STATISTICS /////
+    //////////////////////////////
+
+    synchronized void record(long micros) {
+        latencies[(int) (answered % SAMPLES)] = micros;
+        answered++;
+    }
+
+    synchronized String stats() {
+        int n = (int) Math.min(answered, SAMPLES);
+        if (n == 0) return "stats n=0";
+        long[] sorted = Arrays.copyOf(latencies, n);
+        Arrays.sort(sorted);
+        return "stats n=" + answered
+                + " p50=" + percentile(sorted, 50) + "ms"
+                + " p90=" + percentile(sorted, 90) + "ms"
+                + " p99=" + percentile(sorted, 99) + "ms"
+                + " max=" + sorted[n - 1] / 1000.0 + "ms"
+                + " tt_hits=" + tt.hits.get() + "/" + tt.probes.get();
+    }
+
+    static double percentile(long[] sorted, int p) {
+        int index = (int) Math.ceil(p / 100.0 * sorted.length) - 1; // nearest-rank percentile
+        return sorted[Math.max(index, 0)] / 1000.0;
+    }
+}
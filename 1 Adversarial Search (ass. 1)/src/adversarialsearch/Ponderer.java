@@ -0,0 +1,125 @@
+package adversarialsearch;
+
+import java.util.Vector;
+
+public class Ponderer {
+
+    // a player that keeps thinking while the opponent is thinking ("pondering").
+    // after move() returns our move, a background thread searches the position we expect after the
+    // opponent's reply (the second move of our principal variation). everything it finds goes into
+    // the transposition table, so if the opponent really plays that reply, our next search starts warm
+    // and the time we already spent pondering counts towards the budget of that move.
+
+    TranspositionTable tt = new TranspositionTable(20);
+    Game game;              // searches our real moves
+    Game ponderGame;        // searches in the background, a new one for every position we ponder on
+    Thread ponderThread;    // null when we are not pondering
+    long predictedHash;     // hash of the position we are pondering on
+    long ponderStart;       // when we started pondering on it
+    int maxDepth;
+
+    int ponderHits, ponderMisses; // how often the opponent played the move we expected
+
+    public Ponderer(int maxDepth) {
+        this.maxDepth = maxDepth;
+        game = new Game(null);
+        game.tt = tt;
+    }
+
+    // pick a move for s within budgetMillis, then start pondering on the expected reply.
+    // returns the state after our move (like Game.search), and never waits for the background search:
+    // that one is cancelled, and stops on its own while we already search (the table is safe to share)
+    public State move(State s, long budgetMillis) {
+        long pondered = System.currentTimeMillis() - ponderStart;
+        boolean pondering = cancelPondering();
+        long budget = budgetMillis;
+        if (pondering && s.hash == predictedHash) {
+            // we were right: the table is already full of this position, and the pondering time counts
+            ponderHits++;
+            budget = Math.max(budgetMillis - pondered, budgetMillis / 10);
+        } else if (pondering) {
+            ponderMisses++;
+        }
+
+        game.nodesVisited = 0;
+        State best = game.search(s, budget, maxDepth);
+        startPondering(s, best);
+        return best;
+    }
+
+    void startPondering(State s, State best) {
+        Vector<String> pv = game.principalVariation(s, s.turn, 2);
+        if (best == s || pv.size() < 2 || !pv.get(0).equals(best.moves.lastElement())) {
+            return; // game over, or no idea what the opponent will do
+        }
+        State predicted = best.copy();
+        predicted.execute(pv.get(1));
+        if (predicted.isLeaf()) return;
+
+        predictedHash = predicted.hash;
+        ponderStart = System.currentTimeMillis();
+        // a game of its own, so a cancelled search that has not stopped yet never sees the next one's flags
+        Game g = new Game(null);
+        g.tt = tt;
+        ponderGame = g;
+        // no real time limit, it runs until it is cancelled or maxDepth is done
+        ponderThread = new Thread(() -> g.search(predicted, Long.MAX_VALUE / 2, maxDepth));
+        ponderThread.setDaemon(true); // never keep the program alive just to ponder
+        ponderThread.start();
+    }
+
+    // cancel the background search (if any), without waiting for it to stop.
+    // returns true if we were pondering
+    boolean cancelPondering() {
+        if (ponderThread == null) return false;
+        ponderGame.cancelled = true; // unlike stop, search() does not clear this when the thread only starts now
+        ponderThread = null;
+        return true;
+    }
+
+    // cancel the background search (if any) and wait until it has really stopped, for when the game is over.
+    // returns true if we were pondering
+    public boolean stopPondering() {
+        Thread t = ponderThread;
+        if (!cancelPondering()) return false;
+        try {
+            t.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return true;
+    }
+
+    ///////////////////////////////////////
+    ///// DEMO: TWO PONDERING PLAYERS /////
+    ///////////////////////////////////////
+
+    // plays a game between two pondering players on a board, and shows what pondering saves
+    // usage: java adversarialsearch.Ponderer [board file] [budget ms per move]
+    public static void main(String[] args) {
+        State s = new State();
+        s.read(args.length > 0 ? args[0] : "data/board.txt");
+        long budget = args.length > 1 ? Long.parseLong(args[1]) : 200;
+        Ponderer[] players = { new Ponderer(40), new Ponderer(40) };
+
+        while (!s.isLeaf() && s.moves.size() < 100) { // agents can walk in circles forever, so cap it
+            Ponderer player = players[s.turn];
+            long start = System.currentTimeMillis();
+            int hitsBefore = player.ponderHits;
+            State next = player.move(s, budget);
+            System.out.println("Agent " + s.turn + " plays " + next.moves.lastElement()
+                    + " (depth " + player.game.searchDepth + ", " + (System.currentTimeMillis() - start) + " ms"
+                    + (player.ponderHits > hitsBefore ? ", ponder hit" : "") + ")");
+            s = next;
+        }
+        for (Ponderer player : players) player.stopPondering();
+
+        System.out.println();
+        System.out.println(s);
+        System.out.println("Scores: Agent 0 = " + s.score[0] + ", Agent 1 = " + s.score[1]);
+        for (int agent = 0; agent < 2; agent++) {
+            System.out.println("Agent " + agent + " ponder hits: " + players[agent].ponderHits
+                    + ", misses: " + players[agent].ponderMisses);
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package adversarialsearch;
+
+import java.util.Random;
+import java.util.Vector;
+
+public class ScalingBenchmark {
+
+    // how the engine scales with the size of the board and the amount of food on it.
+    // for every (size, food) it generates a random board (fixed seed) and reports:
+    //   read:    time for State.parse() to read the board text
+    //   movegen: legalMoves() + next() per second, on random playouts from the start position
+    //   copy:    copy() + execute() per second, what the search used to do for every node
+    //   search:  alfabeta nodes per second at a fixed depth
+    //
+    // usage: java adversarialsearch.ScalingBenchmark [search depth]
+
+    static final int[][] SIZES = {
+            { 10, 10 }, { 100, 10 }, { 100, 1000 }, { 1000, 10 }, { 1000, 1000 }, { 1000, 100000 },
+            { 2000, 10 }, { 2000, 10000 } };
+
+    public static void main(String[] args) {
+        int depth = args.length > 0 ? Integer.parseInt(args[0]) : 9;
+        System.out.println("Scaling benchmark, alfabeta at depth " + depth + ", wall density 0.2");
+        System.out.println(String.format("%10s %8s %10s %14s %14s %14s", "size", "food", "read ms",
+                "movegen/s", "copy/s", "search nodes/s"));
+
+        for (int[] size : SIZES) {
+            int n = size[0], food = size[1];
+            String text = BoardGenerator.generate(n, n, 0.2, food, 42);
+
+            long start = System.nanoTime();
+            State board = new State();
+            board.parse(text);
+            double readMs = (System.nanoTime() - start) / 1e6;
+
+            double movegen = movegenPerSecond(board);
+            double copies = copiesPerSecond(board);
+
+            Game game = new Game(board);
+            start = System.nanoTime();
+            game.alfabeta(board, board.turn, depth, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+            double searchSeconds = (System.nanoTime() - start) / 1e9;
+
+            System.out.println(String.format("%10s %8d %10.1f %14.0f %14.0f %14.0f", n + "x" + n, food, readMs,
+                    movegen, copies, game.nodesVisited / searchSeconds));
+        }
+    }
+
+    // random playouts of at most 100 moves from the start position, for about a second
+    static double movegenPerSecond(State start) {
+        Random random = new Random(1);
+        long moves = 0;
+        long begin = System.nanoTime(), end = begin + 1000000000L;
+        while (System.nanoTime() < end) {
+            State s = start;
+            for (int i = 0; i < 100 && !s.isLeaf(); i++) {
+                Vector<String> legal = s.legalMoves();
+                s = s.next(legal.get(random.nextInt(legal.size())));
+                moves++;
+            }
+        }
+        return moves / ((System.nanoTime() - begin) / 1e9);
+    }
+
+    // copy() and execute() of the start position, for about half a second
+    static double copiesPerSecond(State start) {
+        String move = start.legalMoves().get(0);
+        long copies = 0;
+        long begin = System.nanoTime(), end = begin + 500000000L;
+        while (System.nanoTime() < end) {
+            State s = start.copy();
+            s.execute(move);
+            copies++;
+        }
+        return copies / ((System.nanoTime() - begin) / 1e9);
+    }
+}
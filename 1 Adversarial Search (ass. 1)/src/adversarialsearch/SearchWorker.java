@@ -0,0 +1,134 @@
+package adversarialsearch;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.concurrent.LinkedBlockingQueue;
+
+public class SearchWorker {
+
+    // a worker JVM for DistributedSearch. it listens on a local port and searches the subtrees the
+    // coordinator sends it with alfabeta, with its own transposition table that it keeps between jobs.
+    //
+    // protocol, one line each:
+    //   coordinator -> worker:  job <id> <forAgent> <maxDepth> <alfa> <beta> <state>
+    //   coordinator -> worker:  alfa <value>     a better root move was found while the job runs
+    //   worker -> coordinator:  result <id> <value> <nodes> <alfa>
+    //   coordinator -> worker:  quit
+    // the job's state is searched as if it is at depth 1 (a child of the coordinator's root),
+    // and <value> is the value of the state alfabeta returns for it, like the root loop in Game uses.
+    // the search takes a raised alfa in from the next node it visits on, so the result has the highest
+    // alfa the job got: a value at or below it is only an upper bound.
+    //
+    // usage: java adversarialsearch.SearchWorker <port>
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int port = Integer.parseInt(args[0]);
+        Game game = new Game(null);
+        game.tt = new TranspositionTable(22); // this worker's own table, ~4M entries
+
+        ServerSocket server = new ServerSocket(port);
+        System.err.println("SearchWorker listening on port " + port);
+        while (true) {
+            // one coordinator at a time, when it hangs up we wait for the next one
+            Socket socket = server.accept();
+            BufferedReader in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+            PrintWriter out = new PrintWriter(socket.getOutputStream(), true);
+            LinkedBlockingQueue<String> requests = new LinkedBlockingQueue<String>();
+            // a thread of its own reads what the coordinator sends, so a new alfa gets to the job that is running
+            Thread reader = new Thread(() -> read(in, game, requests));
+            reader.setDaemon(true);
+            reader.start();
+            String line;
+            while (!(line = requests.take()).equals(HUNG_UP)) {
+                if (line.equals("quit")) {
+                    socket.close();
+                    server.close();
+                    return;
+                }
+                String[] parts = line.split(" ", 7); // the state is the rest of the line
+                State s = decode(parts[6]);
+                int forAgent = Integer.parseInt(parts[2]);
+                int maxDepth = Integer.parseInt(parts[3]);
+                double alfa = Double.parseDouble(parts[4]);
+                double beta = Double.parseDouble(parts[5]);
+
+                game.nodesVisited = 0;
+                State result = game.alfabeta(s, forAgent, maxDepth, 1, alfa, beta);
+                out.println("result " + parts[1] + " " + game.score(result, forAgent) + " " + game.nodesVisited
+                        + " " + Math.max(alfa, game.alfaFloor));
+            }
+            socket.close();
+        }
+    }
+
+    static final String HUNG_UP = ""; // what read() puts in the queue when the coordinator is gone
+
+    // reads the coordinator's lines: jobs and quit go in the queue, a new alfa goes straight into the game
+    static void read(BufferedReader in, Game game, LinkedBlockingQueue<String> requests) {
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                if (line.startsWith("alfa ")) {
+                    double alfa = Double.parseDouble(line.substring(5));
+                    if (alfa > game.alfaFloor) game.alfaFloor = alfa;
+                    continue;
+                }
+                if (line.startsWith("job ")) {
+                    // the coordinator only sends a job when we are done with the one before, so this is its alfa
+                    game.alfaFloor = Double.parseDouble(line.split(" ", 7)[4]);
+                }
+                requests.add(line);
+                if (line.equals("quit")) return;
+            }
+        } catch (IOException e) {
+            // the coordinator is gone
+        }
+        requests.add(HUNG_UP);
+    }
+
+    //////////////////////////////////////
+    ///// STATES AS ONE LINE OF TEXT /////
+    //////////////////////////////////////
+
+    // turn, scores and agent positions, then the board rows separated by '/' (without the agents,
+    // so two agents on one cell is no problem). the move history is not sent, it is not needed to search
+    static String encode(State s) {
+        StringBuilder result = new StringBuilder();
+        result.append(s.turn).append(' ').append(s.score[0]).append(' ').append(s.score[1]);
+        for (int player = 0; player < 2; player++) {
+            result.append(' ').append(s.agentX[player]).append(' ').append(s.agentY[player]);
+        }
+        result.append(' ');
+        for (int row = 0; row < s.board.length; row++) {
+            if (row > 0) result.append('/');
+            result.append(s.board[row]);
+        }
+        return result.toString();
+    }
+
+    static State decode(String text) {
+        String[] parts = text.split(" ", 8); // board rows can contain spaces, so they are the rest
+        State s = new State();
+        s.turn = Integer.parseInt(parts[0]);
+        s.score[0] = Integer.parseInt(parts[1]);
+        s.score[1] = Integer.parseInt(parts[2]);
+        for (int player = 0; player < 2; player++) {
+            s.agentX[player] = Integer.parseInt(parts[3 + 2 * player]);
+            s.agentY[player] = Integer.parseInt(parts[4 + 2 * player]);
+        }
+        String[] rows = parts[7].split("/");
+        s.board = new char[rows.length][];
+        for (int row = 0; row < rows.length; row++) {
+            s.board[row] = rows[row].toCharArray();
+            for (char ch : s.board[row]) {
+                if (ch == '*') s.food++; // count the food again
+            }
+        }
+        s.hash = s.computeHash();
+        return s;
+    }
+}
@@ -3,6 +3,8 @@ package adversarialsearch;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.StringReader;
+import java.util.Arrays;
 import java.util.Vector;
 
 public class State {
@@ -18,6 +20,10 @@ public class State {
     int turn;           // who's turn it is, agent 0 or agent 1
     int food;           // the total amount of food still available
     Vector<String> moves; // list of moves executed so far
+    long hash;          // position hash (board, agents, scores, turn), kept up to date by execute()
+    boolean repeated;   // set by the search when this position was already on its search path
+    boolean decided;    // set by futility pruning when the food left can't change who wins anymore
+    boolean shared;     // board rows may be shared with other states (see next()), copy a row before changing it
 
     /////////////////////////////////////////
     ///// CONSTRUCTOR - INITIALIZE GAME /////
@@ -38,49 +44,67 @@ public class State {
 
     public void read(String file) {
         try {
-            // open file and get board dimensions from first line
+            // open file and read the board from it
             BufferedReader reader = new BufferedReader(new FileReader(file));
-            String line = reader.readLine();
-            String[] dimensions = line.split(" ");
-            int w = Integer.parseInt(dimensions[0]);  // board width
-            int h = Integer.parseInt(dimensions[1]);  // board height
-
-            // create board with proper size and reset food counter
-            board = new char[h][w];
-            food = 0;
-
-            // read each row of the maze
-            for (int row = 0; row < h; row++) {
-                line = reader.readLine();
-                // check each character in this row
-                for (int col = 0; col < w; col++) {
-                    char ch = line.charAt(col);
-                    if (ch == 'A') {
-                        // found player A's starting position
-                        agentX[0] = col;
-                        agentY[0] = row;
-                        board[row][col] = ' '; // player moves around, so put empty space
-                    } else if (ch == 'B') {
-                        // found player B's starting position
-                        agentX[1] = col;
-                        agentY[1] = row;
-                        board[row][col] = ' '; // player moves around, so put empty space
-                    } else if (ch == '*') {
-                        // found food - keep it and count it
-                        board[row][col] = ch;
-                        food++;
-                    } else {
-                        // walls (#) or empty spaces ( ) - just copy them
-                        board[row][col] = ch;
-                    }
-                }
-            }
+            read(reader);
             reader.close();
         } catch (IOException e) {
             e.printStackTrace(); // something went wrong reading the file
         }
     }
 
+    // same as read(file), but for a board that is already in memory (e.g. sent to the MoveServer)
+    // the text has the same format as board.txt: "w h" on the first line, then h rows
+    public void parse(String text) {
+        try {
+            read(new BufferedReader(new StringReader(text)));
+        } catch (IOException e) {
+            e.printStackTrace(); // can't really happen for a string, but readLine() wants it handled
+        }
+    }
+
+    public void read(BufferedReader reader) throws IOException {
+        // get board dimensions from first line
+        String line = reader.readLine();
+        String[] dimensions = line.split(" ");
+        int w = Integer.parseInt(dimensions[0]);  // board width
+        int h = Integer.parseInt(dimensions[1]);  // board height
+
+        // create board with proper size and reset food counter
+        board = new char[h][w];
+        food = 0;
+
+        // read each row of the maze
+        for (int row = 0; row < h; row++) {
+            line = reader.readLine();
+            // copy the whole row in one go (fast on big boards), a row that is too short ends in empty spaces
+            int length = Math.min(w, line.length());
+            line.getChars(0, length, board[row], 0);
+            Arrays.fill(board[row], length, w, ' ');
+            // check each character in this row
+            for (int col = 0; col < w; col++) {
+                char ch = board[row][col];
+                if (ch == '#' || ch == ' ') {
+                    continue; // walls and empty spaces are already on the board as they are
+                } else if (ch == 'A') {
+                    // found player A's starting position
+                    agentX[0] = col;
+                    agentY[0] = row;
+                    board[row][col] = ' '; // player moves around, so put empty space
+                } else if (ch == 'B') {
+                    // found player B's starting position
+                    agentX[1] = col;
+                    agentY[1] = row;
+                    board[row][col] = ' '; // player moves around, so put empty space
+                } else if (ch == '*') {
+                    // found food - keep it and count it
+                    food++;
+                }
+            }
+        }
+        hash = computeHash(); // new board, so the position hash starts from scratch
+    }
+
     ////////////////////////////////////////
     ///// CONVERT GAME STATE TO STRING /////
     ////////////////////////////////////////
@@ -119,12 +143,10 @@ public class State {
     public State copy() {
         State copy = new State();
 
-        // copy the entire board piece by piece
-        copy.board = new char[board.length][board[0].length];
+        // copy the entire board row by row
+        copy.board = new char[board.length][];
         for (int row = 0; row < board.length; row++) {
-            for (int col = 0; col < board[0].length; col++) {
-                copy.board[row][col] = board[row][col];
-            }
+            copy.board[row] = board[row].clone();
         }
 
         // copy both players' positions and scores
@@ -137,15 +159,37 @@ public class State {
         // copy game state info
         copy.turn = turn;
         copy.food = food;
+        copy.hash = hash;
 
         // copy the history of moves made so far
-        for (String move : moves) {
-            copy.moves.add(move);
-        }
+        copy.moves.addAll(moves);
 
         return copy;
     }
 
+    // the state after move, for the search: the same as copy() and then execute(move), except that
+    // the new state shares the board rows with this one. on a 1000x1000 board that is copying 1000
+    // row references per node instead of a million characters. both states are marked shared, and
+    // execute() copies a row of a shared board before it writes to it, so they never see each other's moves
+    public State next(String move) {
+        State next = new State();
+        next.board = board.clone(); // just the array of rows
+        for (int player = 0; player < 2; player++) {
+            next.agentX[player] = agentX[player];
+            next.agentY[player] = agentY[player];
+            next.score[player] = score[player];
+        }
+        next.turn = turn;
+        next.food = food;
+        next.hash = hash;
+        next.moves.addAll(moves);
+
+        shared = true;
+        next.shared = true;
+        next.execute(move);
+        return next;
+    }
+
     /////////////////////////////////////////
     ///// FIND VALID MOVES FOR A PLAYER /////
     /////////////////////////////////////////
@@ -186,6 +230,7 @@ public class State {
         int currentPlayer = turn;          // who is making this move?
         int playerX = agentX[currentPlayer]; // where are they now?
         int playerY = agentY[currentPlayer];
+        int cell = cell(playerY, playerX);  // where they are, as an index for the position hash
 
         // do whatever action the player chose
         switch (action) {
@@ -202,18 +247,70 @@ public class State {
                 agentX[currentPlayer]--; // move player left (x gets smaller)
                 break;
             case "eat":
+                if (shared) board[playerY] = board[playerY].clone(); // don't change the other states' row
+                hash ^= key(SCORE0 + currentPlayer, score[currentPlayer]); // old score out of the hash
                 score[currentPlayer]++;   // player gets a point for eating food
+                hash ^= key(SCORE0 + currentPlayer, score[currentPlayer]); // new score in
                 board[playerY][playerX] = ' '; // remove food from board
+                hash ^= key(FOOD, cell);
                 food--;                   // one less food piece in the game
                 break;
             case "block":
+                if (shared) board[playerY] = board[playerY].clone(); // don't change the other states' row
                 board[playerY][playerX] = '#'; // place a wall where player is standing
+                hash ^= key(WALL, cell);
                 break;
         }
 
+        // if the player walked, move them in the hash too
+        hash ^= key(AGENT0 + currentPlayer, cell)
+                ^ key(AGENT0 + currentPlayer, cell(agentY[currentPlayer], agentX[currentPlayer]));
+
         // remember this move and switch to the other player
         moves.add(action);
         turn = 1 - turn; // flip between 0 and 1 (if 0 becomes 1, if 1 becomes 0)
+        hash ^= key(TURN, 0);
+    }
+
+    ////////////////////////////
+    ///// POSITION HASHING /////
+    ////////////////////////////
+
+    // zobrist-style hashing: every feature of a position (food on a cell, a wall on a cell, an agent on a cell,
+    // an agent's score, agent 1 to move) has its own pseudo-random 64 bit key, and the hash of a position is
+    // the XOR of the keys of all features in it. so execute() only XORs the few features a move changes.
+    // the keys come from a mixing function instead of a random table, so any board size works for free.
+    // the move history is NOT part of the hash: two states with the same hash are the same position.
+    static final int FOOD = 0, WALL = 1, AGENT0 = 2, AGENT1 = 3, SCORE0 = 4, SCORE1 = 5, TURN = 6;
+
+    static long key(int feature, long index) {
+        // splitmix64 finalizer on (index, feature), gives well spread bits for consecutive indices
+        long z = index * 8 + feature + 0x9E3779B97F4A7C15L;
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    int cell(int row, int col) {
+        return row * board[0].length + col; // number the cells row by row
+    }
+
+    // hash of the whole position from scratch; execute() keeps it up to date after that.
+    // call this again if you change board, agentX/Y, score or turn by hand
+    public long computeHash() {
+        long h = 0;
+        for (int row = 0; row < board.length; row++) {
+            for (int col = 0; col < board[0].length; col++) {
+                if (board[row][col] == '*') h ^= key(FOOD, cell(row, col));
+                else if (board[row][col] == '#') h ^= key(WALL, cell(row, col));
+            }
+        }
+        for (int player = 0; player < 2; player++) {
+            h ^= key(AGENT0 + player, cell(agentY[player], agentX[player]));
+            h ^= key(SCORE0 + player, score[player]);
+        }
+        if (turn == 1) h ^= key(TURN, 0);
+        return h;
     }
 
     /////////////////////////////////////
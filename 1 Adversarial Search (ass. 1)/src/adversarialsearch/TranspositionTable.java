@@ -0,0 +1,67 @@
+package adversarialsearch;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+public class TranspositionTable {
+
+    // remembers what alfabeta found for positions it already searched, so the same position
+    // reached through a different move order (or in the next iterative deepening round, or in the
+    // next request to the MoveServer) does not have to be searched again.
+    // it is a fixed size array indexed by the position hash, so it never grows, and it is safe to
+    // share between threads: entries are immutable and swapped in and out atomically.
+
+    static final int EXACT = 0; // value is the real alfabeta value for this depth
+    static final int LOWER = 1; // search was cut off at a max node, the real value is at least this
+    static final int UPPER = 2; // search was cut off at a min node, the real value is at most this
+
+    static class Entry {
+        final long key;      // full position hash, to detect two positions that land on the same slot
+        final int depth;     // how many plies were searched below this position
+        final String move;   // best move found here (tried first next time)
+        final double value;  // best value found here, for the agent the search was for
+        final int flag;      // EXACT, LOWER or UPPER
+
+        Entry(long key, int depth, String move, double value, int flag) {
+            this.key = key;
+            this.depth = depth;
+            this.move = move;
+            this.value = value;
+            this.flag = flag;
+        }
+    }
+
+    private final AtomicReferenceArray<Entry> slots;
+    private final int mask;
+
+    // statistics, how often a lookup found something
+    final AtomicLong probes = new AtomicLong();
+    final AtomicLong hits = new AtomicLong();
+
+    public TranspositionTable(int sizeLog2) {
+        slots = new AtomicReferenceArray<Entry>(1 << sizeLog2); // 2^sizeLog2 slots
+        mask = (1 << sizeLog2) - 1;
+    }
+
+    public Entry probe(long key) {
+        probes.incrementAndGet();
+        Entry e = slots.get((int) (key ^ (key >>> 32)) & mask);
+        if (e == null || e.key != key) return null; // empty, or some other position in this slot
+        hits.incrementAndGet();
+        return e;
+    }
+
+    public void store(long key, int depth, String move, double value, int flag) {
+        int slot = (int) (key ^ (key >>> 32)) & mask;
+        Entry old = slots.get(slot);
+        // keep the deeper search of the same position, otherwise just replace (newer is more useful)
+        if (old != null && old.key == key && old.depth > depth) return;
+        slots.set(slot, new Entry(key, depth, move, value, flag));
+    }
+
+    public void clear() {
+        for (int i = 0; i < slots.length(); i++) slots.set(i, null);
+        probes.set(0);
+        hits.set(0);
+    }
+}
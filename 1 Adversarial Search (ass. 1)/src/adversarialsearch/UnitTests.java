@@ -1,7 +1,28 @@
 package adversarialsearch;
+import java.io.BufferedReader;
+import java.io.PrintWriter;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.HashMap;
+import java.util.Random;
+import java.util.Vector;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
 public class UnitTests {
 	public static State s=new State(), copy;
 
+	//Fixed positions to check the search options against plain alfabeta: the rows of a board as in board.txt (A to move),
+	//and the moves played from there (agents can stand on a wall they placed, which the rows can't show).
+	//In each of them the agent to move wins by blocking, which is its last legal move: a search that gets the value
+	//wrong, or cuts that move off, plays another move
+	static final String[][] BOARDS={
+			{"#######", "#  *  #", "#   # #", "##  #*#", "# *BA##", "#######"},
+			{"#######", "# #   #", "#  A B#", "#  * *#", "##   *#", "#######"},
+			{"#######", "#     #", "# #* *#", "## AB #", "###*# #", "#######"}};
+	static final String[] MOVES={"block", "block up up block block left right down block", "block right right down right block"};
+	static final int DEPTH=6;
+
 	public static void main(String[] args) {
 		System.out.println("Unit testing");
 
@@ -10,6 +31,16 @@ public class UnitTests {
 			testCopy();
 			testLegalMoves();
 			testLeafValue();
+			testTranspositionTable();
+			testMoveServer();
+			testPonderer();
+			testDistributedSearch();
+			testFutilityPruning();
+			testReductionWithFutility();
+			testSelectiveSearch();
+			testRepetition();
+			testMultiPV();
+			testGeneratedBoard();
 
 		} catch (Exception e) {
 			e.printStackTrace();
@@ -97,4 +128,532 @@ public class UnitTests {
 			throw new Exception("Unit test error: leaf: when all food is eaten, the state must be a leaf.") ;
 		}
 	}
+
+	public static void testFutilityPruning() throws Exception {
+		System.out.println("Testing futility pruning on a position the food decides");
+		//A leads 1-0 and stands on one of the 2 food, B is walled in on the other: after A eats, A wins whatever B does
+		State s=new State();
+		s.parse("6 3\n######\n# A#B#\n######\n");
+		s.board[1][2]='*';
+		s.board[1][4]='*';
+		s.food=2;
+		s.score[0]=1;
+		s.hash=s.computeHash();
+		Game g=new Game(s);
+		State plain=g.alfabeta(s, 0, 3, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+		double plainValue=g.rootValue;
+		int plainNodes=g.nodesVisited;
+		g.futilityPruning=true;
+		g.nodesVisited=0;
+		State pruned=g.alfabeta(s, 0, 3, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+		if (g.futilityPrunes==0 | g.nodesVisited>=plainNodes) {
+			throw new Exception("Unit test error: futility pruning: the position after eating is decided by food, it should be pruned, "
+					+"got "+g.futilityPrunes+" prunes and "+g.nodesVisited+" nodes ("+plainNodes+" without)");
+		}
+		if (!pruned.moves.lastElement().equals(plain.moves.lastElement()) | g.rootValue!=plainValue | plainValue!=1) {
+			throw new Exception("Unit test error: futility pruning: plays "+pruned.moves.lastElement()+" ("+g.rootValue+") instead of "
+					+plain.moves.lastElement()+" ("+plainValue+"), a pruned position must score the win or loss the food decides");
+		}
+	}
+
+	public static void testReductionWithFutility() throws Exception {
+		System.out.println("Testing futility pruning inside a late move reduction");
+		//After A eats, A leads 2-0 with 1 food left. The reduced search of that move is close enough to the horizon
+		//to prune it, and scores it a win, which beats alfa: so it is searched again at full depth, too far from the
+		//horizon to prune it. Then the state must not keep the mark of the reduced search
+		State s=new State();
+		s.parse("6 3\n######\n# A#B#\n######\n");
+		s.board[1][2]='*';
+		s.board[1][4]='*';
+		s.food=2;
+		s.score[0]=1;
+		s.hash=s.computeHash();
+		State eaten=s.next("eat");
+		Game g=new Game(s);
+		g.lateMoveReductions=true;
+		g.futilityPruning=true;
+		State result=g.searchMove(eaten, Game.LMR_MOVES, 0, Game.FUTILITY_DEPTH+2, 0, 0, Double.POSITIVE_INFINITY);
+		if (g.futilityPrunes==0 | g.researches!=1) {
+			throw new Exception("Unit test error: late move reductions with futility pruning: expected the reduced search to prune and the move "
+					+"to be searched again, got "+g.futilityPrunes+" prunes and "+g.researches+" re-searches");
+		}
+		if (eaten.decided) {
+			throw new Exception("Unit test error: late move reductions with futility pruning: the full depth search did not prune the move, "
+					+"so the level above must not score it as decided by food");
+		}
+		//and the value of the full depth search is what plain alfabeta finds
+		Game plain=new Game(s);
+		State expected=plain.alfabeta(eaten, 0, Game.FUTILITY_DEPTH+2, 1, 0, Double.POSITIVE_INFINITY);
+		if (g.score(result, 0)!=plain.score(expected, 0)) {
+			throw new Exception("Unit test error: late move reductions with futility pruning: value "+g.score(result, 0)+", plain alfabeta "
+					+plain.score(expected, 0));
+		}
+	}
+
+	public static void testSelectiveSearch() throws Exception {
+		System.out.println("Testing late move reductions and futility pruning");
+		String[] names={"late move reductions", "futility pruning", "late move reductions and futility pruning"};
+		for (int i=0; i<BOARDS.length; i++) {
+			State p=position(i);
+			State expected=plain(p, DEPTH);
+			for (int option=0; option<names.length; option++) {
+				Game g=new Game(p);
+				g.lateMoveReductions=option!=1;
+				g.futilityPruning=option!=0;
+				same(names[option], i, g.alfabeta(p, p.turn, DEPTH, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY), g.rootValue, expected, plainValue);
+				//the food left (3, with the score 0-0) can always change who wins within DEPTH plies, so futility pruning never kicks in
+				//and saves nothing. Late move reductions reduce the late moves, and only the one that is good is searched again
+				boolean reduced=g.lateMoveReductions;
+				if (g.futilityPrunes!=0 | reduced!=(g.reductions>0) | g.researches>(reduced?g.reductions:0) | reduced!=(g.nodesVisited<plainNodes)) {
+					throw new Exception("Unit test error: "+names[option]+": position "+i+": "+g.reductions+" reductions, "+g.researches
+							+" re-searches, "+g.futilityPrunes+" futility prunes, "+g.nodesVisited+" nodes ("+plainNodes+" without)");
+				}
+			}
+		}
+	}
+
+	public static void testRepetition() throws Exception {
+		System.out.println("Testing repetition detection");
+		//on these positions walking back and forth never beats blocking, so both rules must still find it,
+		//with or without a transposition table, and minimax with the same rule must agree
+		String[] names={"no repetition detection", "repetitions as draws", "repetitions as losses"};
+		for (int i=0; i<BOARDS.length; i++) {
+			State p=position(i);
+			State expected=plain(p, DEPTH);
+			for (int rule=Game.REPETITION_DRAW; rule<=Game.REPETITION_LOSS; rule++) {
+				Game g=new Game(p);
+				g.repetitionRule=rule;
+				same(names[rule], i, g.alfabeta(p, p.turn, DEPTH, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY), g.rootValue, expected, plainValue);
+				g.tt=new TranspositionTable(16);
+				same(names[rule]+" (transposition table)", i, g.alfabeta(p, p.turn, DEPTH, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY), g.rootValue, expected, plainValue);
+				g.tt=null;
+				String move=g.minimax(p, p.turn, DEPTH, 0).moves.lastElement();
+				if (!move.equals(expected.moves.lastElement())) {
+					throw new Exception("Unit test error: "+names[rule]+": position "+i+": minimax plays "+move+", alfabeta plays "+expected.moves.lastElement());
+				}
+			}
+		}
+		//A walks left, B right, A right and B left: the position of the start again, with A to move, so B repeated it.
+		//As a loss, B loses and A wins; as a draw, and without detection, it is worth 0 to both (the game is not over)
+		State start=new State();
+		start.parse("7 5\n#######\n#    *#\n# A B #\n#     #\n#######\n");
+		String[] walk={"left", "right", "right", "left"};
+		double[][] scores={{0, 0}, {0, 0}, {1, -1}};
+		for (int rule=Game.REPETITION_OFF; rule<=Game.REPETITION_LOSS; rule++) {
+			Game g=new Game(start);
+			g.repetitionRule=rule;
+			State w=start;
+			for (int depth=0; depth<=walk.length; depth++) {
+				boolean repeated=g.repeated(w, depth);
+				if (repeated!=(depth==walk.length && rule!=Game.REPETITION_OFF) | w.repeated!=repeated) {
+					throw new Exception("Unit test error: "+names[rule]+": after "+depth+" moves of the walk, repeated is "+repeated);
+				}
+				if (depth<walk.length)
+					w=w.next(walk[depth]);
+			}
+			if (g.score(w, 0)!=scores[rule][0] | g.score(w, 1)!=scores[rule][1]) {
+				throw new Exception("Unit test error: "+names[rule]+": the walk back scores "+g.score(w, 0)+" for A and "+g.score(w, 1)
+						+" for B, expected "+scores[rule][0]+" and "+scores[rule][1]);
+			}
+			//minimax 5 plies deep walks back like this in many ways, and does not search on from there
+			g.minimax(start, 0, 5, 0);
+			if ((g.repetitionsFound>0)!=(rule!=Game.REPETITION_OFF)) {
+				throw new Exception("Unit test error: "+names[rule]+": minimax found "+g.repetitionsFound+" repetitions");
+			}
+		}
+	}
+
+	public static void testMultiPV() throws Exception {
+		System.out.println("Testing multiPV()");
+		for (int i=0; i<BOARDS.length; i++) {
+			State p=position(i);
+			State expected=plain(p, DEPTH);
+			Game g=new Game(p);
+			Vector<Game.PVLine> lines=g.multiPV(p, 3, Long.MAX_VALUE/2, DEPTH);
+			if (g.tt!=null) {
+				throw new Exception("Unit test error: multiPV: the transposition table it made for itself should not be kept");
+			}
+			same("multiPV", i, p.next(lines.get(0).move), lines.get(0).value, expected, plainValue);
+			//every line has the value plain alfabeta gives its move, best first
+			for (int j=0; j<lines.size(); j++) {
+				Game.PVLine line=lines.get(j);
+				Game reference=new Game(p);
+				double value=reference.score(reference.alfabeta(p.next(line.move), p.turn, DEPTH, 1, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY), p.turn);
+				if (line.value!=value | j>0 && line.value>lines.get(j-1).value | !line.pv.get(0).equals(line.move)) {
+					throw new Exception("Unit test error: multiPV: position "+i+" line "+line+", plain alfabeta gives "+line.move+" "+value);
+				}
+			}
+		}
+		//the top k for every k, also on a position whose moves are worth 0, 0 and -1 (a generated board 5 moves in):
+		//k lines (or all moves), best first, every pv legal, and no move left out is worth more than the last line
+		State generated=new State();
+		generated.parse(BoardGenerator.generate(5, 5, 0.15, 1, 9));
+		for (String move: "left down block block left".split(" "))
+			generated.execute(move);
+		State[] positions={position(0), position(1), position(2), generated};
+		for (int i=0; i<positions.length; i++) {
+			State p=positions[i];
+			Vector<String> moves=p.legalMoves();
+			HashMap<String,Double> values=new HashMap<String,Double>();
+			for (String move: moves) {
+				Game reference=new Game(p);
+				values.put(move, reference.score(reference.alfabeta(p.next(move), p.turn, DEPTH, 1, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY), p.turn));
+			}
+			for (int k=1; k<=moves.size()+1; k++) {
+				Vector<Game.PVLine> lines=new Game(p).multiPV(p, k, Long.MAX_VALUE/2, DEPTH);
+				if (lines.size()!=Math.min(k, moves.size())) {
+					throw new Exception("Unit test error: multiPV: position "+i+" top "+k+" has "+lines.size()+" lines");
+				}
+				Vector<String> left=new Vector<String>(moves);
+				for (int j=0; j<lines.size(); j++) {
+					Game.PVLine line=lines.get(j);
+					if (!left.remove(line.move) | line.value!=values.get(line.move) | j>0 && line.value>lines.get(j-1).value) {
+						throw new Exception("Unit test error: multiPV: position "+i+" top "+k+" line "+j+" is "+line+", plain alfabeta gives "+values);
+					}
+					State q=p;
+					for (String move: line.pv) {
+						if (!q.legalMoves().contains(move)) {
+							throw new Exception("Unit test error: multiPV: position "+i+" line "+line+": "+move+" is not legal there");
+						}
+						q=q.next(move);
+					}
+				}
+				for (String move: left) {
+					if (values.get(move)>lines.lastElement().value) {
+						throw new Exception("Unit test error: multiPV: position "+i+" top "+k+" leaves out "+move+" ("+values.get(move)+"): "+lines);
+					}
+				}
+			}
+		}
+	}
+
+	public static void testGeneratedBoard() throws Exception {
+		System.out.println("Testing generated boards and next()");
+		String text=BoardGenerator.generate(30, 20, 0.2, 25, 7);
+		if (!text.equals(BoardGenerator.generate(30, 20, 0.2, 25, 7))) {
+			throw new Exception("Unit test error: BoardGenerator: the same seed must give the same board");
+		}
+		State p=new State();
+		p.parse(text);
+		if (p.food!=25 | p.board.length!=20 | p.board[0].length!=30) {
+			throw new Exception("Unit test error: BoardGenerator: board should be 30x20 with 25 food");
+		}
+		//next() shares board rows between states: every move must give what copy() and execute() give, without changing the state it came from
+		Random random=new Random(7);
+		for (int ply=0; ply<300 && !p.isLeaf(); ply++) {
+			String before=p.toString();
+			long hash=p.hash;
+			Vector<String> moves=p.legalMoves();
+			for (String move: moves) {
+				State next=p.next(move);
+				State expected=p.copy();
+				expected.execute(move);
+				if (!next.toString().equals(expected.toString()) | next.hash!=expected.hash | next.hash!=next.computeHash()
+						| next.food!=expected.food | next.score[0]!=expected.score[0] | next.score[1]!=expected.score[1]
+						| next.turn!=expected.turn | !next.moves.equals(expected.moves)) {
+					throw new Exception("Unit test error: next: "+move+" gives another state than copy() and execute()");
+				}
+			}
+			if (!p.toString().equals(before) | p.hash!=hash) {
+				throw new Exception("Unit test error: next: the moves changed the state they were made from");
+			}
+			p=p.next(moves.get(random.nextInt(moves.size())));
+		}
+		//and searching with next() on a generated board: alfabeta plays what minimax plays
+		p=new State();
+		p.parse(text);
+		Game g=new Game(p);
+		String move=g.alfabeta(p, p.turn, 4, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY).moves.lastElement();
+		if (!move.equals(g.minimax(p, p.turn, 4, 0).moves.lastElement())) {
+			throw new Exception("Unit test error: generated board: alfabeta and minimax play different moves");
+		}
+	}
+
+	public static State position(int i) {
+		return position(i, MOVES[i]);
+	}
+	public static State position(int i, String moves) {
+		State p=new State();
+		p.parse(BOARDS[i][0].length()+" "+BOARDS[i].length+"\n"+String.join("\n", BOARDS[i])+"\n");
+		for (String move: moves.split(" ")) {
+			if (!move.isEmpty())
+				p.execute(move);
+		}
+		return p;
+	}
+	public static State plain(State p, int depth) {
+		//Plain alfabeta: no transposition table, no selective search, no repetition detection. Sets plainValue and plainNodes
+		Game g=new Game(p);
+		State result=g.alfabeta(p, p.turn, depth, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+		plainValue=g.rootValue;
+		plainNodes=g.nodesVisited;
+		return result;
+	}
+	static double plainValue;
+	static int plainNodes;
+	public static void same(String what, int i, State result, double value, State expected, double expectedValue) throws Exception {
+		String move=result.moves.lastElement(), expectedMove=expected.moves.lastElement();
+		if (!move.equals(expectedMove) | value!=expectedValue) {
+			throw new Exception("Unit test error: "+what+": position "+i+" plays "+move+" ("+value+"), plain alfabeta plays "
+					+expectedMove+" ("+expectedValue+")");
+		}
+	}
+	public static void testTranspositionTable() throws Exception {
+		System.out.println("Testing alfabeta and search() with a transposition table");
+		for (int i=0; i<BOARDS.length; i++) {
+			State p=position(i);
+			State expected=plain(p, DEPTH);
+			Game g=new Game(p);
+			g.tt=new TranspositionTable(16);
+			same("transposition table", i, g.alfabeta(p, p.turn, DEPTH, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY), g.rootValue, expected, plainValue);
+			//again with the table full of the search before
+			same("transposition table (second search)", i, g.alfabeta(p, p.turn, DEPTH, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY), g.rootValue, expected, plainValue);
+			g.tt.clear();
+			same("search()", i, g.search(p, Long.MAX_VALUE/2, DEPTH), g.rootValue, expected, plainValue);
+			if (g.searchDepth!=DEPTH) {
+				throw new Exception("Unit test error: search(): without a time limit it should search all the way to depth "+DEPTH);
+			}
+			//a table filled by one game cuts off the search of another game that shares it: the root is in it at full depth
+			g.tt.clear();
+			g.nodesVisited=0;
+			g.alfabeta(p, p.turn, DEPTH, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+			if (g.nodesVisited>=plainNodes) {
+				throw new Exception("Unit test error: transposition table: position "+i+": "+g.nodesVisited+" nodes, plain alfabeta "+plainNodes);
+			}
+			Game other=new Game(p);
+			other.tt=g.tt;
+			long hits=g.tt.hits.get();
+			same("shared transposition table", i, other.alfabeta(p, p.turn, DEPTH, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY), other.rootValue, expected, plainValue);
+			if (other.nodesVisited!=1 | g.tt.hits.get()!=hits+1) {
+				throw new Exception("Unit test error: shared transposition table: position "+i+": the root should be a hit and cut off the search, "
+						+"got "+other.nodesVisited+" nodes and "+(g.tt.hits.get()-hits)+" hits");
+			}
+		}
+		//the table itself: every probe counts, a hit only when the slot holds the same position
+		TranspositionTable table=new TranspositionTable(4);
+		if (table.probe(5)!=null | table.probes.get()!=1 | table.hits.get()!=0) {
+			throw new Exception("Unit test error: TranspositionTable: an empty table has no hits");
+		}
+		table.store(5, 3, "up", 1, TranspositionTable.EXACT);
+		table.store(5, 2, "down", 0, TranspositionTable.EXACT);//a shallower search of the same position does not replace it
+		TranspositionTable.Entry entry=table.probe(5);
+		if (entry==null || !entry.move.equals("up") | entry.depth!=3 | table.hits.get()!=1) {
+			throw new Exception("Unit test error: TranspositionTable: the deeper search of a position should be kept");
+		}
+		table.store(21, 1, "left", 0, TranspositionTable.UPPER);//another position in the same slot (21 & 15 is 5) does
+		if (table.probe(5)!=null | table.probe(21)==null | table.probes.get()!=4 | table.hits.get()!=2) {
+			throw new Exception("Unit test error: TranspositionTable: another position in the same slot should replace the old one");
+		}
+		table.clear();
+		if (table.probe(21)!=null | table.probes.get()!=1 | table.hits.get()!=0) {
+			throw new Exception("Unit test error: TranspositionTable: clear() should empty the table and reset the counts");
+		}
+	}
+	public static void testMoveServer() throws Exception {
+		System.out.println("Testing MoveServer answers");
+		MoveServer server=new MoveServer(1, 4, DEPTH);
+		for (int i=0; i<BOARDS.length; i++) {
+			//a request only has the rows and the agent to move, so this is the board before the moves of the position
+			State expected=plain(position(i, ""), DEPTH);
+			StringWriter answer=new StringWriter();
+			server.answer("move "+i+" 0 100000 "+String.join("/", BOARDS[i]), System.nanoTime(), new PrintWriter(answer, true));
+			//<id> <move> <value> <depth> <nodes> <latencyMs>
+			String[] parts=answer.toString().trim().split(" ");
+			if (!parts[0].equals(""+i) | !parts[1].equals(expected.moves.lastElement()) | Double.parseDouble(parts[2])!=plainValue) {
+				throw new Exception("Unit test error: MoveServer: answer "+answer.toString().trim()+" for position "+i+", plain alfabeta plays "
+						+expected.moves.lastElement()+" ("+plainValue+")");
+			}
+		}
+		if (!server.stats().startsWith("stats n="+BOARDS.length+" ") | !server.stats().contains(" tt_hits=")) {
+			throw new Exception("Unit test error: MoveServer: stats should count the "+BOARDS.length+" answers: "+server.stats());
+		}
+		server.pool.shutdown();
+		//the latency percentiles are nearest-rank: of 1..100 ms, p50 is 50 ms, whatever order they came in
+		MoveServer timed=new MoveServer(1, 1, DEPTH);
+		Random random=new Random(1);
+		Vector<Long> latencies=new Vector<Long>();
+		for (long ms=1; ms<=100; ms++)
+			latencies.add(random.nextInt(latencies.size()+1), ms*1000);
+		for (long micros: latencies)
+			timed.record(micros);
+		if (!timed.stats().startsWith("stats n=100 p50=50.0ms p90=90.0ms p99=99.0ms max=100.0ms ")) {
+			throw new Exception("Unit test error: MoveServer: wrong latency percentiles: "+timed.stats());
+		}
+		timed.pool.shutdown();
+		//a full pool: with its one thread busy and its queue of one full, the thread that reads the requests searches the next one itself
+		MoveServer busy=new MoveServer(1, 1, DEPTH);
+		CountDownLatch release=new CountDownLatch(1);
+		busy.pool.execute(() -> {
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+			}
+		});
+		StringWriter answers=new StringWriter();
+		String board=String.join("/", BOARDS[0]);
+		busy.serve(new BufferedReader(new StringReader("move queued 1 100000 "+board+"\nmove caller 1 100000 "+board+"\nquit\n")),
+				new PrintWriter(answers, true));
+		//serve() returned, so the second request is answered already, and the first still waits in the queue
+		if (!answers.toString().startsWith("caller ") | answers.toString().contains("queued ")) {
+			throw new Exception("Unit test error: MoveServer: with the pool full, the reading thread should answer the request itself: "+answers);
+		}
+		release.countDown();
+		busy.pool.shutdown();
+		if (!busy.pool.awaitTermination(60, TimeUnit.SECONDS) || !answers.toString().contains("queued ")) {
+			throw new Exception("Unit test error: MoveServer: the queued request should be answered once the pool has room: "+answers);
+		}
+	}
+	public static void testPonderer() throws Exception {
+		System.out.println("Testing Ponderer");
+		for (int i=0; i<BOARDS.length; i++) {
+			//A ponders, both agents play the moves of plain alfabeta, so A's searches start on the position it pondered on
+			Ponderer player=new Ponderer(DEPTH);
+			State p=position(i, "");
+			for (int ply=0; ply<8 && !p.isLeaf(); ply++) {
+				State expected=plain(p, DEPTH);
+				if (p.turn==0)
+					same("Ponderer (move "+ply+")", i, player.move(p, 100000), player.game.rootValue, expected, plainValue);
+				p=expected;
+			}
+			player.stopPondering();
+		}
+		//on a big board, where the background search runs until it is cancelled
+		State p=new State();
+		p.parse(BoardGenerator.generate(30, 20, 0.2, 25, 7));
+		Ponderer player=new Ponderer(40);
+		State ours=player.move(p, 50);
+		Thread pondering=player.ponderThread;
+		if (pondering==null) {
+			throw new Exception("Unit test error: Ponderer: after a move it should ponder on the expected reply");
+		}
+		//the opponent plays the reply it expected: a hit, and the background search stops
+		State reply=null, other=null;
+		for (String move: ours.legalMoves()) {
+			if (ours.next(move).hash==player.predictedHash)
+				reply=ours.next(move);
+		}
+		if (reply==null) {
+			throw new Exception("Unit test error: Ponderer: it ponders on a position that is not a reply to its move");
+		}
+		State second=player.move(reply, 50);
+		pondering.join(2000);
+		if (player.ponderHits!=1 | player.ponderMisses!=0 | pondering.isAlive()) {
+			throw new Exception("Unit test error: Ponderer: the expected reply should be a ponder hit, and stop the background search ("
+					+player.ponderHits+" hits, "+player.ponderMisses+" misses)");
+		}
+		//another reply: a miss
+		pondering=player.ponderThread;
+		for (String move: second.legalMoves()) {
+			if (second.next(move).hash!=player.predictedHash)
+				other=second.next(move);
+		}
+		player.move(other, 50);
+		pondering.join(2000);
+		if (player.ponderHits!=1 | player.ponderMisses!=1 | pondering.isAlive()) {
+			throw new Exception("Unit test error: Ponderer: another reply should be a ponder miss, and stop the background search");
+		}
+		player.stopPondering();
+		if (player.ponderThread!=null) {
+			throw new Exception("Unit test error: Ponderer: stopPondering() should leave no background search");
+		}
+		//move() never waits for the background search, even one that does not stop
+		Thread stuck=new Thread(() -> {
+			try {
+				Thread.sleep(10000);
+			} catch (InterruptedException e) {
+				//done
+			}
+		});
+		stuck.setDaemon(true);
+		stuck.start();
+		player.ponderThread=stuck;
+		player.ponderGame=new Game(null);
+		long start=System.currentTimeMillis();
+		player.move(p, 50);
+		long time=System.currentTimeMillis()-start;
+		stuck.interrupt();
+		player.stopPondering();
+		if (time>2000) {
+			throw new Exception("Unit test error: Ponderer: move() took "+time+" ms for a budget of 50 ms, it waited for the background search");
+		}
+	}
+	public static void testDistributedSearch() throws Exception {
+		System.out.println("Testing DistributedSearch");
+		//without workers the coordinator searches all root moves itself, still with the alfa of the moves before
+		DistributedSearch coordinator=new DistributedSearch();
+		for (int i=0; i<BOARDS.length; i++) {
+			State p=position(i);
+			State expected=plain(p, DEPTH);
+			same("DistributedSearch (no workers)", i, coordinator.search(p, DEPTH), coordinator.rootValue, expected, plainValue);
+		}
+		//a search that gets a better alfa from above while it runs: the moves that are not better than it fail low,
+		//in less nodes
+		int withFloor=0, without=0;
+		for (int i=0; i<BOARDS.length; i++) {
+			State p=position(i);
+			State expected=plain(p, DEPTH);
+			for (String move: p.legalMoves()) {
+				Game g=new Game(p);
+				g.alfaFloor=plainValue;
+				double value=g.score(g.alfabeta(p.next(move), p.turn, DEPTH, 1, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY), p.turn);
+				Game reference=new Game(p);
+				double real=reference.score(reference.alfabeta(p.next(move), p.turn, DEPTH, 1, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY), p.turn);
+				if (real>plainValue | value<=plainValue & real>value | value>plainValue & value!=real | g.nodesVisited>reference.nodesVisited) {
+					throw new Exception("Unit test error: alfaFloor: position "+i+" move "+move+" gives "+value+" in "+g.nodesVisited
+							+" nodes with alfa "+plainValue+" from above, "+real+" in "+reference.nodesVisited+" nodes without");
+				}
+				withFloor+=g.nodesVisited;
+				without+=reference.nodesVisited;
+			}
+		}
+		if (withFloor>=without) {
+			throw new Exception("Unit test error: alfaFloor: an alfa from above should prune, "+withFloor+" nodes with it, "+without+" without");
+		}
+		//and with two worker JVMs, which get the better alfas of each other's jobs while they search
+		coordinator=new DistributedSearch();
+		coordinator.spawnWorkers(1, freePort());
+		coordinator.spawnWorkers(1, freePort());
+		try {
+			int shared=0;
+			for (int i=0; i<BOARDS.length; i++) {
+				State p=position(i);
+				State expected=plain(p, DEPTH);
+				same("DistributedSearch", i, coordinator.search(p, DEPTH), coordinator.rootValue, expected, plainValue);
+				shared+=coordinator.boundsShared;
+			}
+			if (shared==0) {
+				throw new Exception("Unit test error: DistributedSearch: no better alfa was sent to a worker that was still searching");
+			}
+			//one worker dies halfway the search of a big board: its job goes to the other one
+			State p=new State();
+			p.parse(BoardGenerator.generate(30, 20, 0.2, 25, 7));
+			State expected=plain(p, KILL_DEPTH);
+			Process victim=coordinator.processes.get(0);
+			Thread killer=new Thread(() -> {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					return;
+				}
+				victim.destroyForcibly();
+			});
+			killer.start();
+			same("DistributedSearch (a worker dies)", 0, coordinator.search(p, KILL_DEPTH), coordinator.rootValue, expected, plainValue);
+			killer.join();
+			if (coordinator.reassigned!=1 | coordinator.workers.size()!=1) {
+				throw new Exception("Unit test error: DistributedSearch: the job of the worker that died should be re-assigned once, got "
+						+coordinator.reassigned+" with "+coordinator.workers.size()+" workers left");
+			}
+		} finally {
+			coordinator.shutdown();
+		}
+	}
+	static final int KILL_DEPTH=19; //deep enough on the generated board that a job takes a while
+	public static int freePort() throws Exception {
+		//a port nobody listens on right now
+		try (java.net.ServerSocket socket=new java.net.ServerSocket(0)) {
+			return socket.getLocalPort();
+		}
+	}
+
 }
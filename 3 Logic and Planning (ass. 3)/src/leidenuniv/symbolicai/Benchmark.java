@@ -0,0 +1,293 @@
+package leidenuniv.symbolicai;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Vector;
+
+import leidenuniv.symbolicai.logic.KB;
+import leidenuniv.symbolicai.logic.KBSnapshot;
+import leidenuniv.symbolicai.logic.Predicate;
+import leidenuniv.symbolicai.logic.Sentence;
+
+public class Benchmark {
+	//Compares the forward chaining engines on generated KBs of growing size:
+	// - family:  a random family tree (everybody but the first person has a random older parent) with the rules of
+	//            family1-3: grandparent, recursive ancestor, sibling (with !=) and brother (with negation)
+	// - closure: only the parent facts of such a tree and the recursive ancestor rules (the transitive closure)
+	//For each engine it prints the time of forwardChain and checks that it derives the same facts as the first engine
+	//that ran on that KB. The parallel engine is the semi-naive one with a thread per processor, which only pays off
+	//on a machine with more than one (with one processor its time shows what splitting the rules costs).
+	//The compiled engine is the semi-naive one with every rule compiled into lambdas (see inference.RuleCompiler)
+	//instead of interpreted, so the two of them compare the interpreter and the compiled rules.
+	//An engine is skipped on a KB if it would need more than TIME_LIMIT ms (the naive loop takes minutes on a few
+	//thousand people). The time is guessed from its last two runs, or as size^1.5 after the first one.
+	//The load benchmark writes a file of size random facts and times reading it line by line with new Sentence(line)
+	//(what KB(File) used to do) against KB.load, and then against KBSnapshot: open (header and checksum) and open plus
+	//decoding every sentence. A million facts take about 600MB, give java -Xmx4g for more.
+	//usage: java leidenuniv.symbolicai.Benchmark [family|closure|load] [size ...]
+
+	static final long TIME_LIMIT=60000;
+
+	interface Engine {
+		KB forwardChain(KB kb);
+	}
+
+	static String[] names={"naive", "semi-naive", "parallel", "rete", "compiled"};
+	static Engine[] engines;
+
+	public static void main(String[] args) {
+		MyAgent agent=new MyAgent();
+		MyAgent parallel=new MyAgent();
+		parallel.setParallelism(Runtime.getRuntime().availableProcessors());
+		agent.setFixpointCache(0);//every run has to chain
+		parallel.setFixpointCache(0);
+		ReteAgent rete=new ReteAgent();
+		CompiledAgent compiled=new CompiledAgent();
+		engines=new Engine[] {kb -> naiveForwardChain(agent, kb), agent::forwardChain, parallel::forwardChain,
+				rete::forwardChain, compiled::forwardChain};
+
+		if (args.length>0) {
+			int[] sizes=new int[args.length-1];
+			for (int i=1; i<args.length; i++)
+				sizes[i-1]=Integer.parseInt(args[i]);
+			if (args[0].equals("load"))
+				load(sizes);
+			else
+				run(args[0], sizes);
+		} else {
+			run("family", new int[] {100,400,2000,10000});
+			run("closure", new int[] {1000,10000,100000});
+			load(new int[] {10000,100000,1000000});
+		}
+	}
+
+	static void load(int[] sizes) {
+		double lineTime=0;//ms of the line reader on the last size
+		int lastSize=0;
+		for (int size: sizes) {
+			try {
+				File file=File.createTempFile("facts", ".txt");
+				file.deleteOnExit();
+				PrintWriter out=new PrintWriter(new BufferedWriter(new FileWriter(file)));
+				Random random=new Random(42);
+				out.println("# "+size+" random facts");
+				for (int i=0; i<size; i++) {
+					switch (random.nextInt(3)) {
+					case 0: out.println("parent(p"+random.nextInt(size)+",p"+random.nextInt(size)+")"); break;
+					case 1: out.println("at(c"+random.nextInt(size)+")"); break;
+					default: out.println("passage(c"+random.nextInt(size)+",c"+random.nextInt(size)+")");
+					}
+				}
+				out.println("parent(X,Y)&ancestor(Y,Z)>ancestor(X,Z)");
+				out.close();
+				System.out.println("load "+size+" facts, "+file.length()/1000+" kB");
+
+				long expected=0;//checksum of the sentences the line reader read, so only one KB is in memory at a time
+				if (lastSize==0 || lineTime*size/lastSize<TIME_LIMIT) {
+					long start=System.nanoTime();
+					KB lines=new KB();
+					BufferedReader in=new BufferedReader(new FileReader(file));
+					for (String line=in.readLine(); line!=null; line=in.readLine()) {
+						line=line.trim();
+						if (!line.startsWith("#") && line.length()>0)
+							lines.add(new Sentence(line));
+					}
+					in.close();
+					lineTime=(System.nanoTime()-start)/1e6;
+					System.out.println(String.format("  %-12s %10.1f ms  %8d sentences", "line+regex", lineTime,
+							lines.rules().size()));
+					expected=checksum(lines);
+				} else {
+					lineTime*=(double)size/lastSize;
+					System.out.println(String.format("  %-12s skipped", "line+regex"));
+				}
+				long start=System.nanoTime();
+				KB kb=new KB();
+				kb.load(file);
+				double time=(System.nanoTime()-start)/1e6;
+				if (expected==0)
+					expected=checksum(kb);
+				System.out.println(String.format("  %-12s %10.1f ms  %8d sentences  %s", "streaming", time,
+						kb.rules().size(), expected==checksum(kb)?"same sentences":"DIFFERENT SENTENCES"));
+
+				File snapshot=File.createTempFile("facts", ".kb");
+				snapshot.deleteOnExit();
+				KBSnapshot.save(kb, snapshot);
+				kb=null;
+				start=System.nanoTime();
+				kb=KBSnapshot.open(snapshot);
+				time=(System.nanoTime()-start)/1e6;
+				System.out.println(String.format("  %-12s %10.1f ms  %8d sentences  %d kB", "snapshot", time, kb.size(),
+						snapshot.length()/1000));
+				kb.rules();
+				time=(System.nanoTime()-start)/1e6;
+				System.out.println(String.format("  %-12s %10.1f ms  %8d sentences  %s", "+ decode all", time,
+						kb.rules().size(), expected==checksum(kb)?"same sentences":"DIFFERENT SENTENCES"));
+				file.delete();
+				snapshot.delete();
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+			lastSize=size;
+		}
+	}
+
+	static void run(String kind, int[] sizes) {
+		for (Engine engine: engines)
+			engine.forwardChain(kind.equals("family")?familyKB(50, 1):closureKB(50, 1));//warm up the JIT a bit
+
+		double[] lastTime=new double[engines.length];//ms, on the last size
+		double[] growth=new double[engines.length];//time ~ size^growth
+		Arrays.fill(growth, 1.5);
+		int lastSize=0;
+		for (int size: sizes) {
+			KB kb=kind.equals("family")?familyKB(size, 42):closureKB(size, 42);
+			System.out.println(kind+" "+size+", "+kb.rules().size()+" sentences");
+			KB expected=null;
+			long referenceTime=0;
+			for (int e=0; e<engines.length; e++) {
+				double guess=lastTime[e]*Math.pow((double)size/lastSize, growth[e]);
+				if (lastSize>0 && guess>TIME_LIMIT) {
+					lastTime[e]=guess;
+					System.out.println(String.format("  %-12s skipped", names[e]));
+					continue;
+				}
+				long start=System.nanoTime();
+				KB result=engines[e].forwardChain(kb);
+				long time=System.nanoTime()-start;
+				if (lastSize>0)
+					growth[e]=Math.max(1, Math.log(time/1e6/lastTime[e])/Math.log((double)size/lastSize));
+				lastTime[e]=time/1e6;
+				String check;
+				if (expected==null) {
+					expected=result;
+					referenceTime=time;
+					check="reference";
+				} else
+					check=sameFacts(expected, result)?"same facts":"DIFFERENT FACTS";
+				System.out.println(String.format("  %-12s %10.1f ms  %8d facts  %7.1fx  %s", names[e], time/1e6,
+						result.rules().size(), (double)referenceTime/time, check));
+			}
+			lastSize=size;
+		}
+	}
+
+	public static KB naiveForwardChain(Agent a, KB kb) {
+		//The original forward chaining loop: every round, every rule looks for all its substitutions in all facts,
+		//with the original search for them (naiveSubstitutions), not the indexed one findAllSubstitutions has now
+		KB facts=new KB();
+		HashMap<String,Predicate> factMap=new HashMap<String,Predicate>();
+		boolean changed=true;
+		while (changed) {
+			changed=false;
+			for (Sentence rule: kb.rules()) {
+				Collection<HashMap<String,String>> allSubsts=new Vector<HashMap<String,String>>();
+				if (rule.conditions.isEmpty())
+					allSubsts.add(new HashMap<String,String>());
+				else
+					naiveSubstitutions(a, allSubsts, new HashMap<String,String>(), rule.conditions, factMap);
+				for (HashMap<String,String> subst: allSubsts) {
+					for (Predicate conclusion: rule.conclusions) {
+						Predicate bound=a.substitute(conclusion, subst);
+						if (bound.bound() && !factMap.containsKey(bound.toString())) {
+							facts.add(new Sentence(bound.toString()));
+							factMap.put(bound.toString(), bound);
+							changed=true;
+						}
+					}
+				}
+			}
+		}
+		return facts;
+	}
+
+	static boolean naiveSubstitutions(Agent a, Collection<HashMap<String,String>> allSubstitutions,
+			HashMap<String,String> substitution, Vector<Predicate> conditions, HashMap<String,Predicate> facts) {
+		//The original findAllSubstitutions of MyAgent: conditions in written order, each one unified with every fact
+		if (conditions.isEmpty()) {
+			allSubstitutions.add(new HashMap<String,String>(substitution));
+			return true;
+		}
+		Predicate condition=a.substitute(conditions.get(0), substitution);
+		Vector<Predicate> remaining=new Vector<Predicate>(conditions.subList(1, conditions.size()));
+		if (condition.not() || condition.eql()) {
+			if (condition.bound() && condition.getTerm(0).term.equals(condition.getTerm(1).term)==condition.eql())
+				return naiveSubstitutions(a, allSubstitutions, substitution, remaining, facts);
+			return false;
+		}
+		if (condition.neg) {
+			for (Predicate fact: facts.values()) {
+				if (a.unifiesWith(condition, fact)!=null)
+					return false;
+			}
+			return naiveSubstitutions(a, allSubstitutions, substitution, remaining, facts);
+		}
+		boolean found=false;
+		for (Predicate fact: facts.values()) {
+			HashMap<String,String> unifier=a.unifiesWith(condition, fact);
+			if (unifier!=null) {
+				HashMap<String,String> next=new HashMap<String,String>(substitution);
+				next.putAll(unifier);
+				if (naiveSubstitutions(a, allSubstitutions, next, remaining, facts))
+					found=true;
+			}
+		}
+		return found;
+	}
+
+	public static KB familyKB(int people, long seed) {
+		//A random family tree of people p0..p(people-1), with the family rules
+		Random random=new Random(seed);
+		KB kb=new KB();
+		for (int i=0; i<people; i++) {
+			if (i>0)
+				kb.add(new Sentence("parent(p"+random.nextInt(i)+",p"+i+")"));
+			kb.add(new Sentence((random.nextBoolean()?"female":"male")+"(p"+i+")"));
+		}
+		kb.add(new Sentence("parent(X,Y)&parent(Y,Z)>grandparent(X,Z)"));
+		kb.add(new Sentence("parent(X,Y)>ancestor(X,Y)"));
+		kb.add(new Sentence("parent(X,Y)&ancestor(Y,Z)>ancestor(X,Z)"));
+		kb.add(new Sentence("parent(Z,X)&parent(Z,Y)&!=(X,Y)>sibling(X,Y)"));
+		kb.add(new Sentence("sibling(X,Y)&!female(Y)>brother(Y)"));
+		return kb;
+	}
+
+	public static KB closureKB(int parents, long seed) {
+		//parents parent facts of a random tree (about parents*ln(parents) ancestors), with the rules of family2
+		Random random=new Random(seed);
+		KB kb=new KB();
+		for (int i=1; i<=parents; i++)
+			kb.add(new Sentence("parent(p"+random.nextInt(i)+",p"+i+")"));
+		kb.add(new Sentence("parent(X,Y)>ancestor(X,Y)"));
+		kb.add(new Sentence("parent(X,Y)&ancestor(Y,Z)>ancestor(X,Z)"));
+		return kb;
+	}
+
+	static long checksum(KB kb) {
+		//the number of sentences and the sum of their hashes, the same for the same sentences in any order
+		long sum=0;
+		for (Sentence s: kb.rules())
+			sum+=s.toString().hashCode();
+		return ((long)kb.rules().size()<<32)+sum;
+	}
+
+	public static boolean sameFacts(KB a, KB b) {
+		//true if both KBs hold the same sentences (in any order)
+		HashSet<String> sa=new HashSet<String>(), sb=new HashSet<String>();
+		for (Sentence s: a.rules())
+			sa.add(s.toString());
+		for (Sentence s: b.rules())
+			sb.add(s.toString());
+		return sa.equals(sb);
+	}
+}
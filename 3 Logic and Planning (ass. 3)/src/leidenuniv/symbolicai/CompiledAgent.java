@@ -0,0 +1,25 @@
+package leidenuniv.symbolicai;
+
+import java.io.File;
+
+import leidenuniv.symbolicai.inference.RuleCompiler;
+import leidenuniv.symbolicai.logic.KB;
+
+public class CompiledAgent extends MyAgent {
+	//The same agent as MyAgent, but forward chaining runs the rules compiled into lambdas (see inference.RuleCompiler).
+	//It derives exactly the same facts as MyAgent.forwardChain. The rules are compiled when they are loaded.
+	private RuleCompiler compiler=new RuleCompiler();
+
+	@Override
+	public void loadKnowledgeBase(String type, File f) {
+		super.loadKnowledgeBase(type, f);
+		compiler.compile(perceptRules);
+		compiler.compile(programRules);
+		compiler.compile(actionRules);
+	}
+
+	@Override
+	public KB forwardChain(KB kb) {
+		return compiler.forwardChain(kb);
+	}
+}
@@ -1,43 +1,288 @@
 package leidenuniv.symbolicai;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
 import java.util.Vector;
-
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import leidenuniv.symbolicai.environment.Maze;
+import leidenuniv.symbolicai.inference.FixpointCache;
+import leidenuniv.symbolicai.inference.MaterializedView;
+import leidenuniv.symbolicai.inference.TabledQuery;
+import leidenuniv.symbolicai.logic.Atom;
+import leidenuniv.symbolicai.logic.Bindings;
+import leidenuniv.symbolicai.logic.FactStore;
 import leidenuniv.symbolicai.logic.KB;
+import leidenuniv.symbolicai.logic.PersistentKB;
 import leidenuniv.symbolicai.logic.Predicate;
+import leidenuniv.symbolicai.logic.RuleGraph;
 import leidenuniv.symbolicai.logic.Sentence;
+import leidenuniv.symbolicai.logic.Symbols;
 import leidenuniv.symbolicai.logic.Term;
 
 public class MyAgent extends Agent {
+	// the threads that match the candidates of a rule in parallel, null to match on
+	// the calling thread only
+	private ForkJoinPool pool;
+	// a rule is only split over threads if its first condition has this many
+	// candidates, and then into parts of at least this size
+	static final int GRAIN = 512;
+	// the facts that programRules derive from the beliefs, kept up to date from
+	// cycle to cycle, and the program rules it was made for
+	private MaterializedView beliefView;
+	private KB beliefViewRules;
+	// the same for the percept rules, which also read the percepts of the last cycle
+	private MaterializedView perceptView;
+	private KB perceptViewRules;
+	private LinkedHashSet<Atom> lastPercepts = new LinkedHashSet<Atom>();
+	// per view, the beliefs that processFacts added (true) or deleted (false) since
+	// the view was last updated, in that order; the beliefs only change there
+	private LinkedHashMap<Atom, Boolean> thinkChanges = new LinkedHashMap<Atom, Boolean>();
+	private LinkedHashMap<Atom, Boolean> senseChanges = new LinkedHashMap<Atom, Boolean>();
+	// the results of forwardChain for the KBs it chained last, null to keep none
+	private FixpointCache cache = new FixpointCache(CACHE_SIZE);
+	static final int CACHE_SIZE = 1024;
+
+	public void setParallelism(int threads) {
+		// With threads > 0, forwardChain and findAllSubstitutions split the facts that
+		// the first condition of a rule can match over that many threads. The result is
+		// the same as with 0 (the default, no threads), in the same order.
+		if (pool != null) {
+			pool.shutdown(); // its threads end, it is not used anymore
+		}
+		pool = threads > 0 ? new ForkJoinPool(threads) : null;
+	}
+
+	public void setFixpointCache(int capacity) {
+		// forwardChain keeps the facts of the last capacity KBs it chained, 0 to keep
+		// none (the default is CACHE_SIZE)
+		cache = capacity > 0 ? new FixpointCache(capacity) : null;
+	}
+
+	public FixpointCache fixpointCache() {
+		// the cache, with its hit and miss counts, or null
+		return cache;
+	}
 
 	@Override
-	public KB forwardChain(KB kb) {
-		KB facts = new KB();
-		HashMap<String, Predicate> factMap = new HashMap<>();
-		boolean changed = true;
-		while (changed) {
-			changed = false;
+	public void think(KB b, KB d, KB i) {
+		// The beliefs of the agent change by a few facts per cycle, so the facts of the
+		// program rules come from a MaterializedView that only works on those changes.
+		// Other belief bases (the states of a plan search) are forward chained.
+		if (b != believes) {
+			super.think(b, d, i);
+			return;
+		}
+		if (beliefView == null || beliefViewRules != programRules) {
+			beliefView = new MaterializedView(programRules);
+			beliefViewRules = programRules;
+			beliefView.update(b);
+			thinkChanges.clear();
+		} else {
+			Vector<Atom> add = new Vector<Atom>(), del = new Vector<Atom>();
+			changes(thinkChanges, add, del);
+			beliefView.update(add, del);
+		}
+		// processFacts only acts on the facts with an operator
+		KB facts = DEBUG ? beliefView.facts() : beliefView.operations();
+		if (DEBUG)
+			System.out.println("THINK INFERENCE:\n" + facts);
+		processFacts(facts, b, d, i);
+	}
 
-			for (Sentence rule : kb.rules()) {
-				Collection<HashMap<String, String>> allSubsts = new Vector<>();
+	@Override
+	public void sense(Maze w) {
+		// As Agent.sense, but the facts of the percept rules come from a
+		// MaterializedView as well. It only gets the percepts that differ from those of
+		// the last cycle and the beliefs that changed since, so a cycle in which the
+		// agent stays where it is (after a look) costs next to nothing.
+		KB percepts = w.generatePercepts();
+		if (DEBUG)
+			System.out.println("PERCEPTS:\n" + percepts);
+		Vector<Atom> add = new Vector<Atom>(), del = new Vector<Atom>();
+		if (perceptView == null || perceptViewRules != perceptRules) {
+			perceptView = new MaterializedView(perceptRules);
+			perceptViewRules = perceptRules;
+			lastPercepts.clear();
+			senseChanges.clear();
+			for (Sentence s : believes) {
+				if (s.conditions.isEmpty() && s.conclusions.get(0).bound()) {
+					add.add(Atom.of(s.conclusions.get(0)));
+				}
+			}
+		}
+		LinkedHashSet<Atom> now = new LinkedHashSet<Atom>();
+		for (Sentence s : percepts) {
+			now.add(Atom.of(s.conclusions.get(0)));
+		}
+		for (Atom a : now) {
+			if (!lastPercepts.contains(a)) {
+				add.add(a);
+			}
+		}
+		for (Atom a : lastPercepts) {
+			if (!now.contains(a)) {
+				del.add(a);
+			}
+		}
+		lastPercepts = now;
+		changes(senseChanges, add, del);
+		// a fact that is a percept and a belief is added for both, the view counts them
+		perceptView.update(add, del);
+		KB result = DEBUG ? perceptView.facts() : perceptView.operations();
+		if (DEBUG)
+			System.out.println("PERCEPT INFERENCE:\n" + result);
+		processFacts(result, believes, desires, intentions);
+	}
 
-				if (rule.conditions.isEmpty()) {
-					allSubsts.add(new HashMap<>());
-				} else {
-					findAllSubstitutions(allSubsts, new HashMap<>(), rule.conditions, factMap);
+	@Override
+	public void processFacts(KB facts, KB b, KB d, KB i) {
+		// As Agent.processFacts, and notes which beliefs of the agent change, for the
+		// views of think and sense
+		if (facts == null || b != believes) {
+			super.processFacts(facts, b, d, i);
+			return;
+		}
+		LinkedHashMap<Atom, Boolean> before = new LinkedHashMap<Atom, Boolean>();
+		for (Sentence s : facts) {
+			Predicate p = s.conclusions.get(0);
+			if (p.add || p.del) {
+				Predicate fact = new Predicate(p.toString().substring(1));
+				Atom a = Atom.of(fact);
+				if (!before.containsKey(a)) {
+					before.put(a, b.contains(fact));
 				}
+			}
+		}
+		super.processFacts(facts, b, d, i);
+		for (Map.Entry<Atom, Boolean> e : before.entrySet()) {
+			boolean after = b.contains(e.getKey().toPredicate());
+			if (after != e.getValue()) {
+				note(thinkChanges, e.getKey(), after);
+				note(senseChanges, e.getKey(), after);
+			}
+		}
+	}
 
-				for (HashMap<String, String> subst : allSubsts) {
-					for (Predicate conclusion : rule.conclusions) {
-						Predicate boundConclusion = substitute(conclusion, subst);
+	private static void note(LinkedHashMap<Atom, Boolean> changes, Atom belief, boolean added) {
+		// an addition and a deletion of the same belief cancel out
+		if (changes.containsKey(belief)) {
+			changes.remove(belief);
+		} else {
+			changes.put(belief, added);
+		}
+	}
 
-						if (boundConclusion.bound()) {
-							String key = boundConclusion.toString();
-							if (!factMap.containsKey(key)) {
-								Sentence newFact = new Sentence(boundConclusion.toString());
+	private static void changes(LinkedHashMap<Atom, Boolean> changes, Vector<Atom> add, Vector<Atom> del) {
+		// moves the noted changes to add and del
+		for (Map.Entry<Atom, Boolean> e : changes.entrySet()) {
+			if (e.getValue()) {
+				add.add(e.getKey());
+			} else {
+				del.add(e.getKey());
+			}
+		}
+		changes.clear();
+	}
+
+	@Override
+	public KB forwardChain(KB kb) {
+		// The rules are evaluated stratum by stratum (see RuleGraph), each stratum
+		// until nothing changes, so a negated condition on a predicate of an earlier
+		// stratum is checked against all its facts. Within a stratum a rule is only
+		// evaluated again if a fact was derived for one of its positive conditions.
+		// Semi-naive evaluation: every time a rule is evaluated, it only looks for
+		// substitutions that use at least one fact that is new since its last
+		// evaluation (its delta). The substitutions with only older facts were already
+		// found last time. This derives exactly the same facts as finding all
+		// substitutions every round: facts are only added, so a substitution that
+		// failed on a negated condition before, still fails now.
+		// A KB with the same sentences as one chained before (a state that planning
+		// reaches again) gets its own copy of the facts from the cache, possibly in
+		// another order (see FixpointCache).
+		if (cache != null) {
+			KB cached = cache.get(kb);
+			if (cached != null) {
+				return cached;
+			}
+		}
+		KB facts = new KB();
+		// all facts, indexed by predicate and argument values
+		FactStore store = new FactStore();
+		Vector<Sentence> rules = kb.rules();
+		// per rule, per condition: how many facts its predicate had at the rule's last
+		// evaluation (null if the rule was not evaluated yet)
+		int[][] seen = new int[rules.size()][];
+		// the conditions of every rule, compiled for unification with array bindings
+		CompiledConditions[] compiled = new CompiledConditions[rules.size()];
+		for (int r = 0; r < rules.size(); r++) {
+			compiled[r] = new CompiledConditions(rules.get(r).conditions);
+			compiled[r].scope();
+		}
+		RuleGraph graph = new RuleGraph(rules);
+		// the rules that have to be evaluated (again)
+		boolean[] dirty = new boolean[rules.size()];
+		Arrays.fill(dirty, true);
+		for (int s = 0; s < graph.strata(); s++) {
+			boolean changed = true;
+			while (changed) {
+				changed = false;
+
+				for (int r : graph.stratum(s)) {
+					if (!dirty[r]) {
+						continue;
+					}
+					dirty[r] = false;
+					Sentence rule = rules.get(r);
+					Vector<Predicate> conditions = rule.conditions;
+					int n = conditions.size();
+					int[] now = new int[n];
+					for (int i = 0; i < n; i++) {
+						if (isPositive(conditions.get(i))) {
+							now[i] = store.count(conditions.get(i));
+						}
+					}
+
+					Collection<HashMap<String, String>> allSubsts = new Vector<>();
+					if (seen[r] == null) {
+						// first evaluation: everything is new
+						compiled[r].plan(new int[n], now, store);
+						match(allSubsts, new HashMap<>(), compiled[r], new int[n], now, store);
+					} else {
+						// for every positive condition d with new facts: d matches a new fact, the
+						// conditions before d only old facts and the ones after d any fact, so every
+						// new substitution is found exactly once
+						for (int d = 0; d < n; d++) {
+							if (!isPositive(conditions.get(d)) || seen[r][d] == now[d]) {
+								continue;
+							}
+							int[] from = new int[n];
+							int[] to = new int[n];
+							for (int i = 0; i < n; i++) {
+								from[i] = i == d ? seen[r][i] : 0;
+								to[i] = i < d ? seen[r][i] : now[i];
+							}
+							compiled[r].plan(from, to, store);
+							match(allSubsts, new HashMap<>(), compiled[r], from, to, store);
+						}
+					}
+					seen[r] = now;
+
+					for (HashMap<String, String> subst : allSubsts) {
+						for (Predicate conclusion : rule.conclusions) {
+							Predicate boundConclusion = substitute(conclusion, subst);
+
+							if (boundConclusion.bound() && store.add(boundConclusion)) {
+								Sentence newFact = new Sentence(boundConclusion);
 								facts.add(newFact);
-								factMap.put(key, boundConclusion);
+								for (int reader : graph.readers(boundConclusion)) {
+									dirty[reader] = true;
+								}
 								changed = true;
 							}
 						}
@@ -46,70 +291,341 @@ public class MyAgent extends Agent {
 			}
 		}
 
+		if (cache != null) {
+			cache.put(kb, facts, !graph.stratified());
+		}
 		return facts;
 	}
 
 	@Override
 	public boolean findAllSubstitutions(Collection<HashMap<String, String>> allSubstitutions,
 			HashMap<String, String> substitution, Vector<Predicate> conditions, HashMap<String, Predicate> facts) {
+		FactStore store = new FactStore();
+		for (Predicate fact : facts.values()) {
+			store.add(fact);
+		}
+		int[] from = new int[conditions.size()];
+		int[] to = new int[conditions.size()];
+		for (int i = 0; i < conditions.size(); i++) {
+			to[i] = store.count(conditions.get(i));
+		}
+		CompiledConditions compiled = new CompiledConditions(conditions);
+		for (int v = 0; v < compiled.variables.length; v++) {
+			if (substitution.containsKey(compiled.variables[v])) {
+				compiled.bindings.bind(v, Symbols.intern(substitution.get(compiled.variables[v])));
+			}
+		}
+		compiled.scope();
+		compiled.plan(from, to, store);
+		return match(allSubstitutions, substitution, compiled, from, to, store);
+	}
+
+	private boolean match(Collection<HashMap<String, String>> allSubstitutions, HashMap<String, String> substitution,
+			CompiledConditions c, int[] from, int[] to, FactStore store) {
+		// findSubstitutions from the first condition of the plan, in parallel if there
+		// is a pool and that condition has enough candidates. The store does not change
+		// while we match (the conclusions are added after), so the threads can all read it.
+		if (pool != null && c.plan.length > 0 && c.positive[c.plan[0]]) {
+			int first = c.plan[0];
+			FactStore.Bucket candidates = store.candidates(c.names[first], c.values(first));
+			int begin = candidates.first(from[first]);
+			int end = candidates.first(to[first]);
+			if (end - begin >= GRAIN) {
+				Vector<HashMap<String, String>> found = pool
+						.invoke(new Part(substitution, c, from, to, store, candidates, begin, end));
+				allSubstitutions.addAll(found);
+				return !found.isEmpty();
+			}
+		}
+		return findSubstitutions(allSubstitutions, substitution, c, 0, from, to, store);
+	}
 
-		if (conditions.isEmpty()) {
-			allSubstitutions.add(new HashMap<>(substitution));
+	private class Part extends RecursiveTask<Vector<HashMap<String, String>>> {
+		// The substitutions in which the first condition of the plan matches candidates
+		// begin..end-1. A large part is split in two halves, and their substitutions are
+		// put together in order, so the result is the same as matching on one thread.
+		private static final long serialVersionUID = 1L;
+		HashMap<String, String> substitution;
+		CompiledConditions c;
+		int[] from, to;
+		FactStore store;
+		FactStore.Bucket candidates;
+		int begin, end;
+
+		Part(HashMap<String, String> substitution, CompiledConditions c, int[] from, int[] to, FactStore store,
+				FactStore.Bucket candidates, int begin, int end) {
+			this.substitution = substitution;
+			this.c = c;
+			this.from = from;
+			this.to = to;
+			this.store = store;
+			this.candidates = candidates;
+			this.begin = begin;
+			this.end = end;
+		}
+
+		@Override
+		protected Vector<HashMap<String, String>> compute() {
+			if (end - begin >= 2 * GRAIN) {
+				int middle = (begin + end) >>> 1;
+				Part left = new Part(substitution, c, from, to, store, candidates, begin, middle);
+				Part right = new Part(substitution, c, from, to, store, candidates, middle, end);
+				left.fork();
+				Vector<HashMap<String, String>> result = right.compute();
+				result.addAll(0, left.join());
+				return result;
+			}
+			// the first condition limited to the positions of our candidates, with its own
+			// bindings
+			int first = c.plan[0];
+			int[] partFrom = from.clone();
+			int[] partTo = to.clone();
+			partFrom[first] = candidates.position(begin);
+			partTo[first] = candidates.position(end - 1) + 1;
+			Vector<HashMap<String, String>> result = new Vector<>();
+			findSubstitutions(result, substitution, new CompiledConditions(c), 0, partFrom, partTo, store);
+			return result;
+		}
+	}
+
+	private boolean findSubstitutions(Collection<HashMap<String, String>> allSubstitutions,
+			HashMap<String, String> substitution, CompiledConditions c, int index, int[] from, int[] to,
+			FactStore store) {
+		// Finds all substitutions for the conditions c.plan[index...] in which each
+		// positive condition i unifies with a fact at position from[i]..to[i]-1 of its
+		// predicate in the store. Negated conditions are checked against all facts.
+		// The variables are bound in c.bindings, and unbound again when we backtrack,
+		// so only a found substitution is turned into a HashMap (on top of the given
+		// substitution).
+
+		if (index == c.plan.length) {
+			HashMap<String, String> result = new HashMap<>(substitution);
+			result.putAll(c.bindings.toMap(c.variables));
+			allSubstitutions.add(result);
 			return true;
 		}
 
-		Predicate condition = conditions.get(0);
-		Predicate substCondition = substitute(condition, substitution);
-		Vector<Predicate> remainingConditions = new Vector<>(conditions.subList(1, conditions.size()));
+		int next = c.plan[index];
+		Predicate condition = c.conditions.get(next);
+		int[] pattern = c.patterns[next];
+		// the terms of the condition with the current bindings filled in (-1 for a free
+		// variable, or a masked one)
+		int[] values = c.values[next];
+		boolean[] masked = c.masked[next];
+		boolean bound = true;
+		for (int i = 0; i < pattern.length; i++) {
+			values[i] = pattern[i] >= 0 ? pattern[i] : masked[i] ? -1 : c.bindings.get(-1 - pattern[i]);
+			bound &= values[i] >= 0;
+		}
 
-		if (substCondition.not()) {
-			if (substCondition.bound()) {
-				if (!substCondition.getTerm(0).term.equals(substCondition.getTerm(1).term)) {
-					return findAllSubstitutions(allSubstitutions, substitution, remainingConditions, facts);
-				}
+		if (condition.not) {
+			if (bound && values[0] != values[1]) {
+				return findSubstitutions(allSubstitutions, substitution, c, index + 1, from, to, store);
 			}
 			return false;
 		}
 
-		if (substCondition.eql()) {
-			if (substCondition.bound()) {
-				if (substCondition.getTerm(0).term.equals(substCondition.getTerm(1).term)) {
-					return findAllSubstitutions(allSubstitutions, substitution, remainingConditions, facts);
-				}
+		if (condition.eql) {
+			if (bound && values[0] == values[1]) {
+				return findSubstitutions(allSubstitutions, substitution, c, index + 1, from, to, store);
 			}
 			return false;
 		}
 
-		if (substCondition.neg) {
-			boolean foundMatch = false;
-			for (Predicate fact : facts.values()) {
-				HashMap<String, String> unifier = unifiesWith(substCondition, fact);
-				if (unifier != null) {
-					foundMatch = true;
-					break;
+		if (condition.neg) {
+			// free variables stay in the pattern, so a repeated one must have one value
+			for (int i = 0; i < pattern.length; i++) {
+				if (values[i] < 0) {
+					values[i] = pattern[i];
 				}
 			}
-			if (!foundMatch) {
-				return findAllSubstitutions(allSubstitutions, substitution, remainingConditions, facts);
+			if (!store.exists(c.names[next], values)) {
+				return findSubstitutions(allSubstitutions, substitution, c, index + 1, from, to, store);
 			}
 			return false;
 		}
 
 		boolean foundAny = false;
-		for (Predicate fact : facts.values()) {
-			HashMap<String, String> unifier = unifiesWith(substCondition, fact);
-			if (unifier != null) {
-				HashMap<String, String> newSubst = new HashMap<>(substitution);
-				newSubst.putAll(unifier);
-				if (findAllSubstitutions(allSubstitutions, newSubst, remainingConditions, facts)) {
+		// only the facts that share the bound arguments of the condition
+		FactStore.Bucket candidates = store.candidates(c.names[next], values);
+		for (int i = candidates.first(from[next]); i < candidates.size() && candidates.position(i) < to[next]; i++) {
+			int mark = c.bindings.mark();
+			if (c.bindings.unify(pattern, candidates.atom(i))) {
+				if (findSubstitutions(allSubstitutions, substitution, c, index + 1, from, to, store)) {
 					foundAny = true;
 				}
 			}
+			c.bindings.undo(mark);
 		}
 
 		return foundAny;
 	}
 
+	private static class CompiledConditions {
+		// The conditions of a rule, with every variable numbered for Bindings
+		Vector<Predicate> conditions;
+		String[] variables; // the name of every variable
+		int[] names; // per condition its name as a symbol
+		int[][] patterns; // per condition per term: its symbol, or -1-v for variable v
+		int[][] values; // per condition room for its terms with the bindings filled in
+		boolean[] positive; // per condition: does it bind variables
+		boolean[][] masked; // per filter per term: a variable that was not bound yet where the filter was written
+		int[] plan; // the order in which findSubstitutions tries the conditions
+		Bindings bindings;
+
+		CompiledConditions(Vector<Predicate> conditions) {
+			this.conditions = conditions;
+			Vector<String> vars = new Vector<>();
+			names = new int[conditions.size()];
+			patterns = new int[conditions.size()][];
+			values = new int[conditions.size()][];
+			for (int i = 0; i < conditions.size(); i++) {
+				Predicate condition = conditions.get(i);
+				names[i] = condition.nameSymbol();
+				patterns[i] = new int[condition.getTerms().size()];
+				values[i] = new int[patterns[i].length];
+				for (int j = 0; j < patterns[i].length; j++) {
+					Term t = condition.getTerm(j);
+					if (t.var) {
+						if (!vars.contains(t.term)) {
+							vars.add(t.term);
+						}
+						patterns[i][j] = -1 - vars.indexOf(t.term);
+					} else {
+						patterns[i][j] = t.symbol();
+					}
+				}
+			}
+			variables = vars.toArray(new String[0]);
+			bindings = new Bindings(variables.length);
+			positive = new boolean[conditions.size()];
+			masked = new boolean[conditions.size()][];
+			plan = new int[conditions.size()];
+			for (int i = 0; i < conditions.size(); i++) {
+				positive[i] = isPositive(conditions.get(i));
+				masked[i] = new boolean[patterns[i].length];
+				plan[i] = i;
+			}
+		}
+
+		CompiledConditions(CompiledConditions c) {
+			// The same conditions and plan, with bindings and room for values of its own,
+			// for another thread
+			conditions = c.conditions;
+			variables = c.variables;
+			names = c.names;
+			patterns = c.patterns;
+			positive = c.positive;
+			masked = c.masked;
+			plan = c.plan;
+			values = new int[patterns.length][];
+			for (int i = 0; i < patterns.length; i++) {
+				values[i] = new int[patterns[i].length];
+			}
+			bindings = new Bindings(variables.length);
+			for (int v = 0; v < variables.length; v++) {
+				if (c.bindings.get(v) >= 0) {
+					bindings.bind(v, c.bindings.get(v));
+				}
+			}
+		}
+
+		int[] values(int i) {
+			// the terms of condition i with the current bindings filled in, -1 if free
+			int[] result = new int[patterns[i].length];
+			for (int j = 0; j < result.length; j++) {
+				result[j] = patterns[i][j] >= 0 ? patterns[i][j] : bindings.get(-1 - patterns[i][j]);
+			}
+			return result;
+		}
+
+		void scope() {
+			// A filter (!=, = or a negated condition) sees the variables bound by the
+			// positive conditions written before it (and the ones bound up front). When
+			// the conditions are reordered, a variable that a filter did not see stays
+			// masked: it is treated as unbound there, even if it is bound by then. So != or
+			// = with such a variable still fails, and !p(X) still means no p(..) at all.
+			boolean[] bound = new boolean[variables.length];
+			for (int v = 0; v < variables.length; v++) {
+				bound[v] = bindings.get(v) >= 0;
+			}
+			for (int i = 0; i < plan.length; i++) {
+				for (int j = 0; j < patterns[i].length; j++) {
+					if (patterns[i][j] < 0) {
+						if (positive[i]) {
+							bound[-1 - patterns[i][j]] = true;
+						} else {
+							masked[i][j] = !bound[-1 - patterns[i][j]];
+						}
+					}
+				}
+			}
+		}
+
+		void plan(int[] from, int[] to, FactStore store) {
+			// Orders the conditions into a cheap join, greedily: a filter as soon as the
+			// variables it sees are bound, else the positive condition that is expected to
+			// match the fewest facts: the facts in its range from..to, divided by the number
+			// of different values at every argument that is a constant or bound already.
+			// The substitutions are the same in any order, only fewer partial ones are tried.
+			boolean[] bound = new boolean[variables.length];
+			for (int v = 0; v < variables.length; v++) {
+				bound[v] = bindings.get(v) >= 0;
+			}
+			boolean[] planned = new boolean[plan.length];
+			for (int k = 0; k < plan.length; k++) {
+				int best = -1;
+				double bestRows = 0;
+				for (int i = 0; i < plan.length && (best < 0 || positive[best]); i++) {
+					if (planned[i]) {
+						continue;
+					}
+					if (!positive[i]) {
+						if (seesBound(i, bound)) {
+							best = i;
+						}
+						continue;
+					}
+					double rows = to[i] - from[i];
+					for (int j = 0; j < patterns[i].length; j++) {
+						if (patterns[i][j] >= 0 || bound[-1 - patterns[i][j]]) {
+							rows /= Math.max(1, store.distinct(names[i], patterns[i].length, j));
+						}
+					}
+					if (best < 0 || rows < bestRows) {
+						best = i;
+						bestRows = rows;
+					}
+				}
+				plan[k] = best;
+				planned[best] = true;
+				if (positive[best]) {
+					for (int t : patterns[best]) {
+						if (t < 0) {
+							bound[-1 - t] = true;
+						}
+					}
+				}
+			}
+		}
+
+		private boolean seesBound(int filter, boolean[] bound) {
+			// are all variables the filter sees bound
+			for (int j = 0; j < patterns[filter].length; j++) {
+				int t = patterns[filter][j];
+				if (t < 0 && !masked[filter][j] && !bound[-1 - t]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static boolean isPositive(Predicate condition) {
+		// the != and = operators and negated conditions do not bind variables
+		return !condition.not && !condition.eql && !condition.neg;
+	}
+
 	@Override
 	public HashMap<String, String> unifiesWith(Predicate p, Predicate f) {
 		// Returns the valid substitution for which p predicate unifies with f
@@ -122,9 +638,7 @@ public class MyAgent extends Agent {
 		// So: unifiesWith("human(X)","human(joost)") returns X=joost, while
 		// unifiesWith("human(joost)","human(X)") returns null
 		// If no subst is found it returns null
-		if (p.neg) {
-			p = new Predicate(p.toString().substring(1));
-		}
+		// a negated p (!p) unifies like p: the operator is not part of the name
 
 		if (!p.getName().equals(f.getName())) {
 			return null;
@@ -164,7 +678,8 @@ public class MyAgent extends Agent {
 		// <s>
 		// (only if a key is present in s matching the variable name of course)
 		// Use Term.substitute(s)
-		Predicate result = new Predicate(old.toString());
+		// The copy is made from the terms of old, parsing old.toString() again is far slower
+		Predicate result = new Predicate(old);
 		for (Term t : result.getTerms()) {
 			t.substitute(s);
 		}
@@ -180,17 +695,21 @@ public class MyAgent extends Agent {
 
 		for (int depth = 1; depth <= maxDepth; depth++) {
 			System.out.println("DEBUG: Trying depth " + depth);
-			KB stateCopy = new KB();
-			for (Sentence s : kb.rules()) {
-				stateCopy.add(s);
-			}
+			// a persistent KB, so every state in the search below is an O(1) copy of it
+			KB stateCopy = new PersistentKB(kb);
 			Plan plan = depthFirst(depth, 0, stateCopy, goal, new Plan());
 			if (plan != null) {
 				System.out.println("DEBUG: Found plan at depth " + depth + ": " + plan);
+				if (cache != null) {
+					System.out.println("DEBUG: " + cache);
+				}
 				System.out.println("=== END IDSEARCH (returning plan) ===");
 				return plan;
 			}
 		}
+		if (cache != null) {
+			System.out.println("DEBUG: " + cache);
+		}
 		System.out.println("DEBUG: No plan found at any depth up to " + maxDepth);
 		System.out.println("=== END IDSEARCH (returning null) ===");
 		return null;
@@ -206,10 +725,6 @@ public class MyAgent extends Agent {
 			return null;
 		}
 
-		// Check if goal is satisfied in current state
-		// Run forward chaining with program rules to derive all facts
-		KB inferredFacts = forwardChain(programRules.union(state));
-
 		// IMPORTANT: Strip operators from goal before checking
 		// Goals come in as *at(X) but we check against facts like at(X)
 		Predicate goalWithoutOperator = goal;
@@ -218,9 +733,13 @@ public class MyAgent extends Agent {
 			goalWithoutOperator = new Predicate(goal.toString().substring(1));
 		}
 
+		// Check if goal is satisfied in current state
+		// Ask the program rules and the state for the facts that unify with the goal:
+		// only the rules the goal depends on are used, not a full forward chain
+		TabledQuery query = new TabledQuery(programRules.union(state));
+
 		// Try to unify goal with any inferred fact (ignoring action operators)
-		for (Sentence s : inferredFacts.rules()) {
-			Predicate fact = new Predicate(s);
+		for (Predicate fact : query.facts(goalWithoutOperator)) {
 
 			// Skip facts that are actions/operators - we only check regular facts
 			if (fact.isAction()) {
@@ -258,11 +777,9 @@ public class MyAgent extends Agent {
 			Plan newPlan = new Plan(partialPlan);
 			newPlan.add(action);
 
-			// Create a complete copy of current state for simulation
-			KB newState = new KB();
-			for (Sentence s : state.rules()) {
-				newState.add(s);
-			}
+			// Create a copy of current state for simulation (O(1), it shares the
+			// structure of state until act changes it)
+			KB newState = state.copy();
 
 			// Simulate action by applying action rules
 			// This updates newState with postconditions (e.g., +at(Y), -at(X), +hasKey(K),
@@ -0,0 +1,14 @@
+package leidenuniv.symbolicai;
+
+import leidenuniv.symbolicai.inference.ReteNetwork;
+import leidenuniv.symbolicai.logic.KB;
+
+public class ReteAgent extends MyAgent {
+	//The same agent as MyAgent, but forward chaining is done with a Rete network (see inference.ReteNetwork).
+	//It derives exactly the same facts as MyAgent.forwardChain, it just does not match every rule against every fact every round.
+
+	@Override
+	public KB forwardChain(KB kb) {
+		return new ReteNetwork(kb).run();
+	}
+}
@@ -3,30 +3,38 @@ package leidenuniv.symbolicai;
 import java.io.File;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Scanner;
+import java.util.TreeSet;
 import java.util.Vector;
 
 import leidenuniv.symbolicai.environment.*;
+import leidenuniv.symbolicai.inference.*;
 import leidenuniv.symbolicai.logic.*;
 
 public class UnitTestPublic {
 	static Maze m;
 	static Agent b;
 	static KB family1,family2,family3,test,facts;
+	static KB[] data;//the KBs the engines are compared on
 	static HashMap<String, String> s;
 	
 	//This is our main program class
 	// It loads a world, makes an agent and then keeps the agent alive by allowing it to complete it's sense think act cycle 
 	public static void main(String[] args) {
 		//Load a world
-		b=new MyAgent();
+		//optionally the agent class to test, e.g. leidenuniv.symbolicai.ReteAgent (default MyAgent)
+		b=args.length>0?agent(args[0]):new MyAgent();
 		
 		family1=new KB(new File("data/family1.txt"));
 		family2=new KB(new File("data/family2.txt"));
 		family3=new KB(new File("data/family3.txt"));
 		test=new KB(new File("data/testfacts.txt"));
+		m=new Maze(new File("data/prison.txt"));
+		//the family KBs, and the percept rules with what the agent perceives at the start of the maze, as in the sense step
+		data=new KB[] {family1, family2, family3, test, new KB(new File("data/percepts.txt")).union(m.generatePercepts())};
 		
-		String allTests[]= {"2a","2b","3a","3b","3c","3d","3e","3f","4a","4b","4c","4d","4e","4f","4g","5a","5b","5c"};
+		String allTests[]= {"2a","2b","3a","3b","3c","3d","3e","3f","4a","4b","4c","4d","4e","4f","4g","5a","5b","5c","6a","6b","6c","6d","6e","6f"};
 		
 		for (String t: allTests) {
 			try {
@@ -45,6 +53,17 @@ public class UnitTestPublic {
 		}
 		
 	}
+	static Agent agent(String name) {
+		//Makes an agent of the class with this name
+		try {
+			return (Agent)Class.forName(name).getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			System.out.println("Error making agent "+name);
+			e.printStackTrace();
+			System.exit(0);
+			return null;
+		}
+	}
 	static boolean doTest(String testnr) {
 		switch(testnr) {
 			case "1":
@@ -137,9 +156,138 @@ public class UnitTestPublic {
 				System.out.print("Test 5c: negation test, inference correctly proofs brother(leon) but not brother(sacha)");
 				facts=b.forwardChain(family3);
 				return (facts.contains(new Predicate("brother(leon)")) && !facts.contains(new Predicate("brother(sacha)")));
+
+			case "6a":
+				System.out.print("Test 6a: TabledQuery answers the same facts as forwardChain for every predicate");
+				for (KB kb: data) {
+					TabledQuery q=new TabledQuery(kb);
+					KB answers=new KB();
+					for (Predicate pattern: patterns(kb)) {
+						for (Predicate p: q.facts(pattern))
+							answers.add(new Sentence(p));
+					}
+					if (!factSet(answers).equals(factSet(new MyAgent().forwardChain(kb))))
+						return false;
+				}
+				return true;
+
+			case "6b":
+				System.out.print("Test 6b: MaterializedView of the rules with the facts as beliefs has the facts of forwardChain");
+				for (KB kb: data) {
+					MaterializedView view=new MaterializedView(rules(kb));
+					view.update(beliefs(kb));
+					if (!factSet(view.facts()).equals(factSet(new MyAgent().forwardChain(kb))))
+						return false;
+				}
+				return true;
+
+			case "6c":
+				System.out.print("Test 6c: MaterializedView deletes (DRed) and adds beliefs one by one like forwardChain from scratch");
+				for (KB kb: data) {
+					KB rules=rules(kb), beliefs=beliefs(kb);
+					MaterializedView view=new MaterializedView(rules);
+					view.update(beliefs);
+					Vector<Sentence> all=new Vector<Sentence>(beliefs.rules());
+					for (Sentence belief: all) {
+						beliefs.del(belief);
+						view.update(beliefs);
+						if (!factSet(view.facts()).equals(factSet(new MyAgent().forwardChain(rules.union(beliefs)))))
+							return false;
+					}
+					for (int i=all.size()-1; i>=0; i--) {
+						beliefs.add(all.get(i));
+						view.update(beliefs);
+						if (!factSet(view.facts()).equals(factSet(new MyAgent().forwardChain(rules.union(beliefs)))))
+							return false;
+					}
+				}
+				return true;
+
+			case "6d":
+				System.out.print("Test 6d: ReteAgent derives the same facts as MyAgent");
+				return sameFacts(new ReteAgent());
+
+			case "6e":
+				System.out.print("Test 6e: CompiledAgent derives the same facts as MyAgent");
+				return sameFacts(new CompiledAgent());
+
+			case "6f":
+				System.out.print("Test 6f: the fixpoint cache finds a KB with the same sentences in another order, unless the order matters");
+				MyAgent cached=new MyAgent();
+				for (KB kb: data) {
+					cached.forwardChain(kb);
+					long hits=cached.fixpointCache().hits();
+					facts=cached.forwardChain(reversed(kb));
+					if (cached.fixpointCache().hits()!=hits+1 || !factSet(facts).equals(factSet(new MyAgent().forwardChain(kb))))
+						return false;
+				}
+				//a negation inside a stratum: the rule that runs first blocks the other one
+				KB ordered=new KB();
+				ordered.add(new Sentence("p"));
+				ordered.add(new Sentence("p&!r>q"));
+				ordered.add(new Sentence("p&!q>r"));
+				cached.forwardChain(ordered);
+				facts=cached.forwardChain(reversed(ordered));
+				return facts.contains(new Predicate("r")) && !facts.contains(new Predicate("q"));
 		}
 		return false;
 	}
+	static boolean sameFacts(Agent a) {
+		//Does forwardChain of agent a derive the same facts as that of MyAgent, for every KB in data
+		for (KB kb: data) {
+			if (!factSet(a.forwardChain(kb)).equals(factSet(new MyAgent().forwardChain(kb))))
+				return false;
+		}
+		return true;
+	}
+	static TreeSet<String> factSet(KB kb) {
+		//The facts of a KB as strings, to compare what two engines derive regardless of the order
+		TreeSet<String> result=new TreeSet<String>();
+		for (Sentence s: kb)
+			result.add(s.toString());
+		return result;
+	}
+	static KB reversed(KB kb) {
+		//The sentences of a KB in the opposite order
+		KB result=new KB();
+		for (int i=kb.size()-1; i>=0; i--)
+			result.add(kb.get(i));
+		return result;
+	}
+	static KB rules(KB kb) {
+		//The sentences of a KB with conditions
+		KB result=new KB();
+		for (Sentence s: kb) {
+			if (!s.conditions.isEmpty())
+				result.add(s);
+		}
+		return result;
+	}
+	static KB beliefs(KB kb) {
+		//The facts of a KB
+		KB result=new KB();
+		for (Sentence s: kb) {
+			if (s.conditions.isEmpty())
+				result.add(s);
+		}
+		return result;
+	}
+	static Vector<Predicate> patterns(KB kb) {
+		//A pattern with only variables, like parent(V0,V1), for every name and arity a sentence of the KB concludes
+		LinkedHashSet<String> result=new LinkedHashSet<String>();
+		for (Sentence s: kb) {
+			for (Predicate p: s.conclusions) {
+				String pattern=p.getName();
+				for (int i=0; i<p.getTerms().size(); i++)
+					pattern+=(i==0?"(":",")+"V"+i;
+				result.add(p.getTerms().isEmpty()?pattern:pattern+")");
+			}
+		}
+		Vector<Predicate> patterns=new Vector<Predicate>();
+		for (String pattern: result)
+			patterns.add(new Predicate(pattern));
+		return patterns;
+	}
 	static int findAllSubstitionsTest(Agent a, String rule, KB f){
 		HashMap<String,Predicate> facts=new HashMap<String,Predicate>();
 		for (Sentence s:f.rules())
@@ -0,0 +1,102 @@
+package leidenuniv.symbolicai.inference;
+
+import java.util.Vector;
+
+import leidenuniv.symbolicai.logic.Atom;
+import leidenuniv.symbolicai.logic.Bindings;
+import leidenuniv.symbolicai.logic.Predicate;
+import leidenuniv.symbolicai.logic.Sentence;
+import leidenuniv.symbolicai.logic.Term;
+
+class CompiledRule {
+	//A rule with its variables numbered for Bindings: per condition and conclusion per term a symbol, or -1-v for variable v.
+	//Used by the engines that match a rule starting anywhere but at its first condition (TabledQuery, MaterializedView).
+	Vector<Predicate> conditions;
+	int variables;
+	int[] names;
+	int[][] patterns;
+	int[][] heads;
+	int[] conclusions;//per conclusion its name
+	int[] operators;//per conclusion its operator (see Atom.OPERATORS)
+	boolean[][] masked;//per condition per term: a variable that no positive condition before it binds
+	boolean[] bindable;//per conclusion: are all its variables bound by a positive condition
+
+	CompiledRule(Sentence rule) {
+		conditions=rule.conditions;
+		Vector<String> vars=new Vector<String>();
+		names=new int[conditions.size()];
+		patterns=new int[conditions.size()][];
+		for (int i=0; i<patterns.length; i++) {
+			names[i]=conditions.get(i).nameSymbol();
+			patterns[i]=pattern(conditions.get(i), vars);
+		}
+		heads=new int[rule.conclusions.size()][];
+		conclusions=new int[heads.length];
+		operators=new int[heads.length];
+		for (int i=0; i<heads.length; i++) {
+			heads[i]=pattern(rule.conclusions.get(i), vars);
+			conclusions[i]=rule.conclusions.get(i).nameSymbol();
+			operators[i]=Atom.operator(rule.conclusions.get(i));
+		}
+		variables=vars.size();
+		//A variable that is bound up front (from a call or a fact to start with) is not seen by a filter before a positive
+		//condition binds it, as forward chaining would not have it there
+		boolean[] bound=new boolean[variables];
+		masked=new boolean[patterns.length][];
+		for (int i=0; i<patterns.length; i++) {
+			Predicate condition=conditions.get(i);
+			boolean positive=!condition.not && !condition.eql && !condition.neg;
+			masked[i]=new boolean[patterns[i].length];
+			for (int j=0; j<patterns[i].length; j++) {
+				if (patterns[i][j]<0) {
+					masked[i][j]=!positive && !bound[-1-patterns[i][j]];
+					if (positive)
+						bound[-1-patterns[i][j]]=true;
+				}
+			}
+		}
+		bindable=new boolean[heads.length];
+		for (int i=0; i<heads.length; i++) {
+			bindable[i]=true;
+			for (int t: heads[i])
+				bindable[i]&=t>=0 || bound[-1-t];
+		}
+	}
+	static int[] pattern(Predicate p, Vector<String> vars) {
+		int[] result=new int[p.getTerms().size()];
+		for (int j=0; j<result.length; j++) {
+			Term t=p.getTerm(j);
+			if (t.var) {
+				if (!vars.contains(t.term))
+					vars.add(t.term);
+				result[j]=-1-vars.indexOf(t.term);
+			} else
+				result[j]=t.symbol();
+		}
+		return result;
+	}
+
+	boolean bindHead(int conclusion, int[] call, Bindings bindings) {
+		//Binds the variables of the conclusion to the constants of the call, false if they don't fit
+		int[] head=heads[conclusion];
+		for (int i=0; i<head.length; i++) {
+			if (call[i]<0)
+				continue;
+			if (head[i]>=0) {
+				if (head[i]!=call[i])
+					return false;
+			} else if (bindings.get(-1-head[i])<0) {
+				bindings.bind(-1-head[i], call[i]);
+			} else if (bindings.get(-1-head[i])!=call[i])
+				return false;
+		}
+		return true;
+	}
+	int[] values(int[] pattern, Bindings bindings) {
+		//the terms with the bindings filled in, -1 for a free variable
+		int[] result=new int[pattern.length];
+		for (int j=0; j<result.length; j++)
+			result[j]=pattern[j]>=0?pattern[j]:bindings.get(-1-pattern[j]);
+		return result;
+	}
+}
@@ -0,0 +1,106 @@
+package leidenuniv.symbolicai.inference;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import leidenuniv.symbolicai.logic.KB;
+import leidenuniv.symbolicai.logic.PersistentKB;
+import leidenuniv.symbolicai.logic.Sentence;
+
+public class FixpointCache {
+	//The results of forward chaining for the KBs that were chained last. Planning reaches the same state again in every
+	//round of iterative deepening, and along different paths; then the facts of that state are known already.
+	//A KB is looked up by its fingerprint (KB.fingerprint), and the KB that was chained is kept next to its facts: a hit
+	//needs the same sentences, so a fingerprint collision is a miss. Their order does not matter, a state reached by
+	//actions in another order is a hit. The facts of such a hit are the same set of facts, but they can be in another
+	//order than chaining the KB itself would give them. Only when the rules have a negation inside a stratum (see
+	//RuleGraph.stratified) the facts themselves can depend on the order of the sentences; then a hit needs the same order.
+	//At most capacity results are kept, the least recently used one is dropped first. Both KBs are kept as a
+	//PersistentKB, so keeping the KB of a search state and handing every hit its own copy of the facts cost nothing.
+	private int capacity;
+	private LinkedHashMap<Long,Result> results;
+	private long hits, misses;
+
+	private static class Result {
+		final PersistentKB kb;//what was chained
+		final PersistentKB facts;
+		final boolean ordered;//the facts depend on the order of the sentences in kb
+
+		Result(PersistentKB kb, PersistentKB facts, boolean ordered) {
+			this.kb=kb;
+			this.facts=facts;
+			this.ordered=ordered;
+		}
+	}
+
+	public FixpointCache(int capacity) {
+		this.capacity=capacity;
+		results=new LinkedHashMap<Long,Result>(16, 0.75f, true) {//in order of use
+			private static final long serialVersionUID=1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Long,Result> eldest) {
+				return size()>FixpointCache.this.capacity;
+			}
+		};
+	}
+
+	public KB get(KB kb) {
+		//The facts of kb, or null if they are not kept. The caller can change them, they are its own copy
+		Result result=results.get(kb.fingerprint());
+		if (result==null || !(result.ordered?sameOrder(result.kb, kb):same(result.kb, kb))) {
+			misses++;
+			return null;
+		}
+		hits++;
+		return result.facts.copy();
+	}
+	public void put(KB kb, KB facts, boolean ordered) {
+		//Keeps the facts of kb, kb and facts are not kept themselves (they can change after this).
+		//ordered: the facts depend on the order of the sentences in kb (its rules are not stratified)
+		PersistentKB source=kb instanceof PersistentKB?((PersistentKB)kb).copy():new PersistentKB(kb);
+		results.put(kb.fingerprint(), new Result(source, new PersistentKB(facts), ordered));
+	}
+	static boolean same(KB kb1, KB kb2) {
+		//The same sentences, in any order
+		if (kb1.size()!=kb2.size())
+			return false;
+		for (Sentence s: kb2) {
+			if (!kb1.contains(s))
+				return false;
+		}
+		return true;
+	}
+	static boolean sameOrder(KB kb1, KB kb2) {
+		//The same sentences in the same order
+		if (kb1.size()!=kb2.size())
+			return false;
+		Iterator<Sentence> it=kb2.iterator();
+		for (Sentence s: kb1) {
+			Sentence t=it.next();
+			if (s!=t && !s.clause().equals(t.clause()))
+				return false;
+		}
+		return true;
+	}
+	public void clear() {
+		results.clear();
+	}
+
+	public int size() {
+		return results.size();
+	}
+	public long hits() {
+		return hits;
+	}
+	public long misses() {
+		return misses;
+	}
+	@Override
+	public String toString() {
+		long lookups=hits+misses;
+		return "fixpoint cache: "+results.size()+"/"+capacity+" results, "+hits+" hits, "+misses+" misses"
+				+(lookups==0?"":" ("+100*hits/lookups+"% hits)");
+	}
+}
@@ -0,0 +1,557 @@
+package leidenuniv.symbolicai.inference;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Vector;
+
+import leidenuniv.symbolicai.logic.Atom;
+import leidenuniv.symbolicai.logic.Bindings;
+import leidenuniv.symbolicai.logic.KB;
+import leidenuniv.symbolicai.logic.Predicate;
+import leidenuniv.symbolicai.logic.RuleGraph;
+import leidenuniv.symbolicai.logic.Sentence;
+
+public class MaterializedView {
+	//The facts that forward chaining derives from a set of rules and a set of beliefs, kept up to date when the beliefs
+	//change, instead of derived again from scratch: update(beliefs) costs time in proportion to what changes.
+	//Changes go through the strata of the rules (see RuleGraph) in order, each stratum with delete and rederive (DRed):
+	// 1. overdelete: every fact with a derivation that uses a deleted fact (or a new fact in a negated condition) is
+	//    deleted, and so on. Negations are not checked here, this deletes too much rather than too little.
+	// 2. rederive: an overdeleted fact that still has a derivation from the remaining facts is put back
+	// 3. insert: the facts derived with a new or rederived fact (or a deleted fact in a negated condition), and so on
+	//A stratum with a negation inside (at(X)&!visited(X)>+visited(X)) has no such delta rules, its facts depend on the order
+	//in which the rules run. Such a stratum is derived again completely when something it reads changes, in the order
+	//forwardChain uses, and only its differences go on to the strata after it.
+	//facts() is the same set of facts as forwardChain(rules.union(beliefs)).
+	//Beliefs are counted, so that beliefs from more than one source (like percepts and what the agent believes) can be
+	//updated per source: a belief that is added twice stays until it is deleted twice.
+	private Vector<Sentence> rules=new Vector<Sentence>();//the rules with conditions
+	private CompiledRule[] compiled;
+	private RuleGraph graph;
+	private Vector<HashSet<Long>> concluded;//per stratum the name/arity of its conclusions
+	private HashSet<Atom> kbFacts=new HashSet<Atom>();//the facts among the rules, always there
+	private LinkedHashMap<Atom,Integer> beliefs=new LinkedHashMap<Atom,Integer>();//belief -> how often it was added
+	private Store facts=new Store();//all facts: the facts among the rules, the beliefs and the derived facts
+
+	public MaterializedView(KB kb) {
+		Store added=new Store();
+		for (Sentence s: kb) {
+			if (!s.conditions.isEmpty()) {
+				rules.add(s);
+				continue;
+			}
+			for (Predicate p: s.conclusions) {
+				if (p.bound() && kbFacts.add(Atom.of(p)))
+					added.add(Atom.of(p));
+			}
+		}
+		compiled=new CompiledRule[rules.size()];
+		for (int r=0; r<rules.size(); r++)
+			compiled[r]=new CompiledRule(rules.get(r));
+		graph=new RuleGraph(rules);
+		concluded=new Vector<HashSet<Long>>(graph.strata());
+		for (int s=0; s<graph.strata(); s++) {
+			concluded.add(new HashSet<Long>());
+			for (int r: graph.stratum(s)) {
+				for (Predicate p: rules.get(r).conclusions)
+					concluded.get(s).add(key(p.nameSymbol(), p.getTerms().size()));
+			}
+		}
+		for (Atom a: added.all())
+			facts.add(a);
+		propagate(added, new Store(), new HashSet<Long>(), true);
+	}
+
+	public void update(KB beliefs) {
+		//Makes the beliefs equal to the facts in the KB (each added once), and updates the derived facts
+		LinkedHashSet<Atom> now=new LinkedHashSet<Atom>();
+		for (Sentence s: beliefs) {
+			if (s.conditions.isEmpty()) {
+				for (Predicate p: s.conclusions) {
+					if (p.bound())
+						now.add(Atom.of(p));
+				}
+			}
+		}
+		Vector<Atom> add=new Vector<Atom>(), del=new Vector<Atom>();
+		for (Atom a: now) {
+			if (!this.beliefs.containsKey(a))
+				add.add(a);
+		}
+		for (Atom a: this.beliefs.keySet()) {
+			for (int n=this.beliefs.get(a)-(now.contains(a)?1:0); n>0; n--)
+				del.add(a);
+		}
+		update(add, del);
+	}
+	public void update(Collection<Atom> add, Collection<Atom> del) {
+		//Adds and deletes beliefs, and updates the derived facts
+		Store added=new Store(), removed=new Store();
+		HashSet<Long> based=new HashSet<Long>();//name/arity of derived facts that became beliefs
+		for (Atom a: del) {
+			Integer count=beliefs.get(a);
+			if (count==null)
+				continue;
+			if (count>1) {
+				beliefs.put(a, count-1);
+				continue;
+			}
+			beliefs.remove(a);
+			if (!kbFacts.contains(a) && facts.remove(a))
+				removed.add(a);//if a rule derives it as well, its stratum rederives it
+		}
+		for (Atom a: add) {
+			Integer count=beliefs.get(a);
+			beliefs.put(a, count==null?1:count+1);
+			if (count!=null)
+				continue;
+			if (!facts.add(a))
+				based.add(key(a.name, a.arity()));
+			else if (!removed.remove(a))
+				added.add(a);
+		}
+		propagate(added, removed, based, false);
+	}
+	public KB facts() {
+		//All facts, like the KB that forwardChain returns
+		KB result=new KB();
+		for (Atom a: facts.all())
+			result.add(new Sentence(a.toPredicate()));
+		return result;
+	}
+	public KB operations() {
+		//Only the facts with an operator (+p, -p, _p, *p, ~p), which are the ones processFacts acts on
+		KB result=new KB();
+		for (Atom a: facts.operations())
+			result.add(new Sentence(a.toPredicate()));
+		return result;
+	}
+	public int size() {
+		return facts.size();
+	}
+
+	private boolean base(Atom a) {
+		return kbFacts.contains(a) || beliefs.containsKey(a);
+	}
+
+	private void propagate(Store added, Store removed, HashSet<Long> based, boolean first) {
+		//added and removed hold the changes so far, they get the changes of every stratum in turn.
+		//The first time, every stratum runs (a rule without positive conditions needs no change to derive something).
+		for (int s=0; s<graph.strata(); s++) {
+			if (!first && !reads(s, added, removed) && !(recursiveNegation(s) && reads(s, based)))
+				continue;
+			if (recursiveNegation(s))
+				derive(s, added, removed);
+			else
+				dred(s, added, removed, first);
+		}
+	}
+
+	private boolean reads(int s, Store added, Store removed) {
+		//does a rule of stratum s read a predicate that changed, or conclude a deleted one (a deleted belief may be derived)
+		for (Long key: concluded.get(s)) {
+			if (removed.has(key))
+				return true;
+		}
+		for (int r: graph.stratum(s)) {
+			CompiledRule c=compiled[r];
+			for (int i=0; i<c.patterns.length; i++) {
+				Long key=key(c.names[i], c.patterns[i].length);
+				if (added.has(key) || removed.has(key))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean reads(int s, HashSet<Long> based) {
+		//A stratum with a negation inside runs in order, so a fact it derived before that is a belief now (there from the
+		//start) can change what it derives
+		for (Long key: concluded.get(s)) {
+			if (based.contains(key))
+				return true;
+		}
+		return false;
+	}
+
+	private boolean recursiveNegation(int s) {
+		//does a rule of stratum s negate a predicate of stratum s
+		for (int r: graph.stratum(s)) {
+			CompiledRule c=compiled[r];
+			for (int i=0; i<c.patterns.length; i++) {
+				if (c.conditions.get(i).neg && concluded.get(s).contains(key(c.names[i], c.patterns[i].length)))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	private void dred(int s, Store added, Store removed, boolean first) {
+		int[] stratum=graph.stratum(s);
+		//1. overdelete, matching against all facts there were (the facts and the deleted ones)
+		Vector<Atom> overdeleted=new Vector<Atom>();
+		for (Atom a: removed.all()) {//deleted beliefs that a rule of this stratum may derive
+			if (concluded.get(s).contains(key(a.name, a.arity())))
+				overdeleted.add(a);
+		}
+		Vector<Atom> todo=new Vector<Atom>();
+		for (int r: stratum) {
+			CompiledRule c=compiled[r];
+			for (int i=0; i<c.patterns.length; i++) {
+				Predicate condition=c.conditions.get(i);
+				if (condition.not || condition.eql)
+					continue;
+				Store changed=condition.neg?added:removed;
+				for (Atom a: new Vector<Atom>(changed.all(key(c.names[i], c.patterns[i].length))))
+					overdelete(c, i, a, removed, overdeleted, todo);
+			}
+		}
+		while (!todo.isEmpty()) {
+			Atom a=todo.remove(todo.size()-1);
+			for (int r: stratum) {
+				CompiledRule c=compiled[r];
+				for (int i=0; i<c.patterns.length; i++) {
+					if (isPositive(c.conditions.get(i)) && c.names[i]==a.name && c.patterns[i].length==a.arity())
+						overdelete(c, i, a, removed, overdeleted, todo);
+				}
+			}
+		}
+
+		//2. rederive
+		Vector<Atom> rederived=new Vector<Atom>();
+		for (Atom a: overdeleted) {
+			if (derivable(stratum, a)) {
+				facts.add(a);
+				removed.remove(a);
+				rederived.add(a);
+			}
+		}
+
+		//3. insert, matching against the facts there are now
+		for (int r: stratum) {
+			CompiledRule c=compiled[r];
+			if (first && !positive(c))
+				insert(c, -1, null, added, removed, todo);
+			for (int i=0; i<c.patterns.length; i++) {
+				Predicate condition=c.conditions.get(i);
+				if (condition.not || condition.eql)
+					continue;
+				Long key=key(c.names[i], c.patterns[i].length);
+				Vector<Atom> seeds=new Vector<Atom>((condition.neg?removed:added).all(key));
+				if (!condition.neg) {
+					for (Atom a: rederived) {
+						if (key(a.name, a.arity()).equals(key))
+							seeds.add(a);
+					}
+				}
+				for (Atom a: seeds)
+					insert(c, i, a, added, removed, todo);
+			}
+		}
+		while (!todo.isEmpty()) {
+			Atom a=todo.remove(todo.size()-1);
+			for (int r: stratum) {
+				CompiledRule c=compiled[r];
+				for (int i=0; i<c.patterns.length; i++) {
+					if (isPositive(c.conditions.get(i)) && c.names[i]==a.name && c.patterns[i].length==a.arity())
+						insert(c, i, a, added, removed, todo);
+				}
+			}
+		}
+	}
+
+	private void overdelete(CompiledRule c, int seed, Atom fact, Store removed, Vector<Atom> overdeleted,
+			Vector<Atom> todo) {
+		Vector<Atom> derived=new Vector<Atom>();
+		match(c, seed, fact, false, removed, derived);
+		for (Atom a: derived) {
+			if (!base(a) && facts.remove(a)) {
+				removed.add(a);
+				overdeleted.add(a);
+				todo.add(a);
+			}
+		}
+	}
+
+	private void insert(CompiledRule c, int seed, Atom fact, Store added, Store removed, Vector<Atom> todo) {
+		//seed -1 matches all conditions
+		Vector<Atom> derived=new Vector<Atom>();
+		if (seed<0)
+			match(c, 0, new Bindings(c.variables), -1, true, null, derived);
+		else
+			match(c, seed, fact, true, null, derived);
+		for (Atom a: derived) {
+			if (facts.add(a)) {
+				if (!removed.remove(a))
+					added.add(a);
+				todo.add(a);
+			}
+		}
+	}
+
+	private boolean derivable(int[] stratum, Atom fact) {
+		//does a rule of the stratum derive fact from the facts there are now
+		for (int r: stratum) {
+			CompiledRule c=compiled[r];
+			for (int k=0; k<c.heads.length; k++) {
+				if (c.operators[k]!=fact.operator || c.conclusions[k]!=fact.name || c.heads[k].length!=fact.arity()
+						|| !c.bindable[k])
+					continue;
+				int[] call=new int[fact.arity()];
+				for (int i=0; i<call.length; i++)
+					call[i]=fact.term(i);
+				Bindings bindings=new Bindings(c.variables);
+				if (!c.bindHead(k, call, bindings))
+					continue;
+				Vector<Atom> derived=new Vector<Atom>();
+				match(c, 0, bindings, -1, true, null, derived);
+				if (derived.contains(fact))
+					return true;
+			}
+		}
+		return false;
+	}
+
+	private void derive(int s, Store added, Store removed) {
+		//Derives the facts of stratum s again, like forwardChain: round after round every rule in KB order, each rule
+		//first finds all its substitutions and then adds its conclusions, until nothing changes
+		HashSet<Atom> old=new HashSet<Atom>();
+		for (Long key: concluded.get(s)) {
+			for (Atom a: new Vector<Atom>(facts.all(key))) {
+				if (!base(a)) {
+					old.add(a);
+					facts.remove(a);
+				}
+			}
+		}
+		HashSet<Atom> now=new HashSet<Atom>();
+		boolean changed=true;
+		while (changed) {
+			changed=false;
+			for (int r: graph.stratum(s)) {
+				Vector<Atom> derived=new Vector<Atom>();
+				match(compiled[r], 0, new Bindings(compiled[r].variables), -1, true, null, derived);
+				for (Atom a: derived) {
+					if (facts.add(a)) {
+						now.add(a);
+						changed=true;
+					}
+				}
+			}
+		}
+		for (Atom a: old) {
+			if (!now.contains(a) && !added.remove(a))
+				removed.add(a);
+		}
+		for (Atom a: now) {
+			if (!old.contains(a) && !removed.remove(a))
+				added.add(a);
+		}
+	}
+
+	private void match(CompiledRule c, int seed, Atom fact, boolean negations, Store removed, Vector<Atom> derived) {
+		//The conclusions of rule c for the matches in which condition seed matches fact
+		Bindings bindings=new Bindings(c.variables);
+		int[] pattern=c.patterns[seed];
+		for (int j=0; j<pattern.length; j++) {
+			if (pattern[j]>=0) {
+				if (pattern[j]!=fact.term(j))
+					return;
+			} else if (!c.masked[seed][j]) {
+				int v=-1-pattern[j];
+				if (bindings.get(v)<0)
+					bindings.bind(v, fact.term(j));
+				else if (bindings.get(v)!=fact.term(j))
+					return;
+			}
+		}
+		match(c, 0, bindings, seed, negations, removed, derived);
+	}
+
+	private void match(CompiledRule c, int index, Bindings bindings, int seed, boolean negations, Store removed,
+			Vector<Atom> derived) {
+		//Matches conditions index... of c (but a positive seed) in written order against the facts (and the removed ones, if not null).
+		//Negated conditions are only checked if negations is true.
+		if (index==c.patterns.length) {
+			for (int k=0; k<c.heads.length; k++) {
+				if (c.bindable[k])
+					derived.add(Atom.of(c.operators[k], c.conclusions[k], c.values(c.heads[k], bindings)));
+			}
+			return;
+		}
+		if (index==seed && isPositive(c.conditions.get(index))) {//a negated seed is checked against the facts there are now
+			match(c, index+1, bindings, seed, negations, removed, derived);
+			return;
+		}
+		Predicate condition=c.conditions.get(index);
+		int[] pattern=c.patterns[index];
+		int[] values=c.values(pattern, bindings);
+		boolean bound=true;
+		for (int j=0; j<values.length; j++) {
+			if (c.masked[index][j])
+				values[j]=-1;
+			bound&=values[j]>=0;
+		}
+		if (condition.not) {
+			if (bound && values[0]!=values[1])
+				match(c, index+1, bindings, seed, negations, removed, derived);
+			return;
+		}
+		if (condition.eql) {
+			if (bound && values[0]==values[1])
+				match(c, index+1, bindings, seed, negations, removed, derived);
+			return;
+		}
+		if (condition.neg) {
+			if (!negations || !facts.exists(c.names[index], values, pattern))
+				match(c, index+1, bindings, seed, negations, removed, derived);
+			return;
+		}
+		for (Store store: removed==null?new Store[] {facts}:new Store[] {facts, removed}) {
+			for (Atom a: store.candidates(c.names[index], values)) {
+				int mark=bindings.mark();
+				if (bindings.unify(pattern, a))
+					match(c, index+1, bindings, seed, negations, removed, derived);
+				bindings.undo(mark);
+			}
+		}
+	}
+
+	private static boolean isPositive(Predicate condition) {
+		return !condition.not && !condition.eql && !condition.neg;
+	}
+	private static boolean positive(CompiledRule c) {
+		//does c have a positive condition
+		for (Predicate condition: c.conditions) {
+			if (isPositive(condition))
+				return true;
+		}
+		return false;
+	}
+	static Long key(int name, int arity) {
+		return ((long)name<<32)|arity;
+	}
+
+	private static class Store {
+		//A set of facts, indexed per name/arity and per argument value, from which facts can be removed as well
+		private LinkedHashSet<Atom> all=new LinkedHashSet<Atom>();
+		private HashMap<Long,LinkedHashSet<Atom>> byPredicate=new HashMap<Long,LinkedHashSet<Atom>>();
+		private HashMap<Long,Vector<HashMap<Integer,LinkedHashSet<Atom>>>> byArgument=
+				new HashMap<Long,Vector<HashMap<Integer,LinkedHashSet<Atom>>>>();
+		private HashMap<Atom,Integer> plain=new HashMap<Atom,Integer>();//fact without operator -> how many operators it has
+		private LinkedHashSet<Atom> operations=new LinkedHashSet<Atom>();//the facts with an operator
+
+		boolean add(Atom a) {
+			if (!all.add(a))
+				return false;
+			Long key=key(a.name, a.arity());
+			if (!byPredicate.containsKey(key)) {
+				byPredicate.put(key, new LinkedHashSet<Atom>());
+				Vector<HashMap<Integer,LinkedHashSet<Atom>>> arguments=new Vector<HashMap<Integer,LinkedHashSet<Atom>>>(a.arity());
+				for (int i=0; i<a.arity(); i++)
+					arguments.add(new HashMap<Integer,LinkedHashSet<Atom>>());
+				byArgument.put(key, arguments);
+			}
+			byPredicate.get(key).add(a);
+			Vector<HashMap<Integer,LinkedHashSet<Atom>>> arguments=byArgument.get(key);
+			for (int i=0; i<arguments.size(); i++) {
+				LinkedHashSet<Atom> set=arguments.get(i).get(a.term(i));
+				if (set==null) {
+					set=new LinkedHashSet<Atom>();
+					arguments.get(i).put(a.term(i), set);
+				}
+				set.add(a);
+			}
+			Integer count=plain.get(a.withoutOperator());
+			plain.put(a.withoutOperator(), count==null?1:count+1);
+			if (a.operator!=0)
+				operations.add(a);
+			return true;
+		}
+		boolean remove(Atom a) {
+			if (!all.remove(a))
+				return false;
+			Long key=key(a.name, a.arity());
+			byPredicate.get(key).remove(a);
+			Vector<HashMap<Integer,LinkedHashSet<Atom>>> arguments=byArgument.get(key);
+			for (int i=0; i<arguments.size(); i++) {
+				LinkedHashSet<Atom> set=arguments.get(i).get(a.term(i));
+				set.remove(a);
+				if (set.isEmpty())
+					arguments.get(i).remove(a.term(i));
+			}
+			int count=plain.get(a.withoutOperator());
+			if (count==1)
+				plain.remove(a.withoutOperator());
+			else
+				plain.put(a.withoutOperator(), count-1);
+			operations.remove(a);
+			return true;
+		}
+		Collection<Atom> all() {
+			return all;
+		}
+		Collection<Atom> operations() {
+			return operations;
+		}
+		Collection<Atom> all(Long key) {
+			LinkedHashSet<Atom> result=byPredicate.get(key);
+			return result==null?Collections.<Atom>emptySet():result;
+		}
+		boolean has(Long key) {
+			return !all(key).isEmpty();
+		}
+		int size() {
+			return all.size();
+		}
+		Collection<Atom> candidates(int name, int[] values) {
+			//The smallest set that holds every fact that matches the values (-1 for a free term)
+			Long key=key(name, values.length);
+			Collection<Atom> best=all(key);
+			Vector<HashMap<Integer,LinkedHashSet<Atom>>> arguments=byArgument.get(key);
+			if (arguments==null)
+				return best;
+			for (int i=0; i<values.length; i++) {
+				if (values[i]>=0) {
+					LinkedHashSet<Atom> set=arguments.get(i).get(values[i]);
+					if (set==null)
+						return Collections.<Atom>emptySet();
+					if (set.size()<best.size())
+						best=set;
+				}
+			}
+			return best;
+		}
+		boolean exists(int name, int[] values, int[] pattern) {
+			//Does a fact (with any operator) match the values, where the free terms with the same variable in pattern
+			//must be equal
+			boolean bound=true;
+			for (int v: values)
+				bound&=v>=0;
+			if (bound) {
+				Atom a=Atom.lookup(0, name, values);
+				return a!=null && plain.containsKey(a);
+			}
+			for (Atom a: candidates(name, values)) {
+				boolean matches=true;
+				for (int i=0; i<values.length && matches; i++) {
+					if (values[i]>=0)
+						matches=values[i]==a.term(i);
+					else {
+						for (int j=0; j<i && matches; j++) {
+							if (values[j]<0 && pattern[j]==pattern[i])
+								matches=a.term(j)==a.term(i);
+						}
+					}
+				}
+				if (matches)
+					return true;
+			}
+			return false;
+		}
+	}
+}
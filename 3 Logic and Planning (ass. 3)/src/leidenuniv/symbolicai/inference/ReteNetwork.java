@@ -0,0 +1,442 @@
+package leidenuniv.symbolicai.inference;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Vector;
+
+import leidenuniv.symbolicai.logic.Atom;
+import leidenuniv.symbolicai.logic.KB;
+import leidenuniv.symbolicai.logic.Predicate;
+import leidenuniv.symbolicai.logic.RuleGraph;
+import leidenuniv.symbolicai.logic.Sentence;
+import leidenuniv.symbolicai.logic.Term;
+
+public class ReteNetwork {
+	//A Rete network that does forward chaining on a KB, used by ReteAgent instead of the naive loop of MyAgent.
+	//The rules are compiled once into a network:
+	// - an alpha memory per distinct condition pattern (name, arity, constants, repeated variables), shared by all rules,
+	//   that holds every fact matching that pattern
+	// - per rule a chain of join nodes, one per positive condition, with a beta memory in front of each join that holds
+	//   the partial matches (bindings) of the conditions before it
+	//A new fact only goes into the alpha memories of its own predicate and is joined with the partial matches already there,
+	//so every combination of facts is tried once, instead of all rules against all facts every round.
+	//Both sides of a join are hashed on the variables the join tests, so a join only looks at the matches that fit.
+	//Negations (!p) and the builtins (!= and =) are no joins: they are checked when a complete match fires, with the bindings
+	//of the positive conditions that come before them in the rule, which is exactly what the naive loop binds at that point.
+	//The rules fire in the same order as MyAgent.forwardChain: stratum by stratum, and within a stratum round after round,
+	//every rule in KB order, and a rule first checks all its new matches before it adds its conclusions. Because facts are
+	//only added, a negation that fails once fails forever, so the result is the same set of facts, also with negation.
+	//Just like unifiesWith, a condition matches facts with any operator (at(X) matches +at(a) and *at(a)).
+	//Names and terms are symbol numbers (see Symbols), so all matching and joining compares ints.
+
+	private Vector<RuleNode> rules=new Vector<RuleNode>();
+	private HashMap<String,AlphaMemory> alphaMemories=new HashMap<String,AlphaMemory>();//pattern -> its memory
+	private HashMap<Long,Vector<AlphaMemory>> alphaByPredicate=new HashMap<Long,Vector<AlphaMemory>>();//name/arity -> all its memories
+	private HashMap<Long,Vector<JoinNode>> joinsByPredicate=new HashMap<Long,Vector<JoinNode>>();//name/arity -> joins on it, deepest first
+	private HashMap<Long,Vector<int[]>> factsByPredicate=new HashMap<Long,Vector<int[]>>();//name/arity -> terms of its facts, for negations
+	private HashSet<Atom> groundFacts=new HashSet<Atom>();//every fact without its operator, for negations that are fully bound
+	private HashSet<Atom> derived=new HashSet<Atom>();//every fact with its operator, so each fact is added once
+	private KB facts=new KB();
+	private RuleGraph graph;
+	private int insertions;//stamps the alpha memories that the current fact went into
+
+	public ReteNetwork(KB kb) {
+		Vector<Sentence> sentences=new Vector<Sentence>();
+		for (Sentence rule: kb) {
+			rules.add(new RuleNode(rule));
+			sentences.add(rule);
+		}
+		graph=new RuleGraph(sentences);
+	}
+
+	public KB run() {
+		//Fires the rules stratum by stratum (see RuleGraph) until nothing new can be derived, and returns all derived facts
+		//(like Agent.forwardChain). The matches of a rule in a later stratum wait in its pending list until its stratum runs.
+		for (int s=0; s<graph.strata(); s++) {
+			boolean fired=true;
+			while (fired) {
+				fired=false;
+				for (int r: graph.stratum(s)) {
+					RuleNode rule=rules.get(r);
+					if (!rule.pending.isEmpty()) {
+						rule.fire();
+						fired=true;
+					}
+				}
+			}
+		}
+		return facts;
+	}
+
+	static Long key(int name, int arity) {
+		return ((long)name<<32)|arity;
+	}
+
+	static Object joinKey(int[] values) {
+		//A hash key for the values a join tests
+		switch (values.length) {
+			case 0:
+				return 0L;
+			case 1:
+				return (long)values[0];
+			case 2:
+				return ((long)values[0]<<32)|values[1];
+			default:
+				return Arrays.toString(values);
+		}
+	}
+
+	private void insert(int name, int[] terms) {
+		//Puts a new fact in the network: first in all alpha memories it matches, then it is joined with the beta memories.
+		//Joins go deepest first, so a partial match made with this fact is never joined with this fact a second time.
+		Long key=key(name, terms.length);
+		Vector<int[]> all=factsByPredicate.get(key);
+		if (all==null) {
+			all=new Vector<int[]>();
+			factsByPredicate.put(key, all);
+		}
+		all.add(terms);
+		groundFacts.add(Atom.of(0, name, terms));
+
+		Vector<AlphaMemory> memories=alphaByPredicate.get(key);
+		if (memories==null)
+			return;
+		insertions++;
+		for (AlphaMemory memory: memories) {
+			if (memory.matches(terms)) {
+				memory.items.add(terms);
+				memory.stamp=insertions;
+			}
+		}
+		for (JoinNode join: joinsByPredicate.get(key)) {
+			if (join.alpha.stamp==insertions) {
+				join.index(terms);
+				join.rightActivate(terms);
+			}
+		}
+	}
+
+	static void add(HashMap<Object,Vector<int[]>> index, Object key, int[] value) {
+		Vector<int[]> values=index.get(key);
+		if (values==null) {
+			values=new Vector<int[]>();
+			index.put(key, values);
+		}
+		values.add(value);
+	}
+
+	private AlphaMemory alphaMemory(int name, int[] constants, int[] sameAs) {
+		//Returns the shared alpha memory for this pattern, new memories are filled with the facts we already have
+		StringBuilder pattern=new StringBuilder().append(name).append('(');
+		for (int i=0; i<constants.length; i++)
+			pattern.append(constants[i]>=0?""+constants[i]:sameAs[i]>=0?"?"+sameAs[i]:"?").append(',');
+		AlphaMemory memory=alphaMemories.get(pattern.toString());
+		if (memory==null) {
+			memory=new AlphaMemory(constants, sameAs);
+			alphaMemories.put(pattern.toString(), memory);
+			Long key=key(name, constants.length);
+			if (!alphaByPredicate.containsKey(key)) {
+				alphaByPredicate.put(key, new Vector<AlphaMemory>());
+				joinsByPredicate.put(key, new Vector<JoinNode>());
+			}
+			alphaByPredicate.get(key).add(memory);
+			Vector<int[]> known=factsByPredicate.get(key);
+			if (known!=null) {
+				for (int[] terms: known) {
+					if (memory.matches(terms))
+						memory.items.add(terms);
+				}
+			}
+		}
+		return memory;
+	}
+
+	private class AlphaMemory {
+		int[] constants;//per term the constant it must be, or -1 for a variable
+		int[] sameAs;//per term an earlier term with the same variable, or -1
+		Vector<int[]> items=new Vector<int[]>();
+		int stamp;
+
+		AlphaMemory(int[] constants, int[] sameAs) {
+			this.constants=constants;
+			this.sameAs=sameAs;
+		}
+
+		boolean matches(int[] terms) {
+			for (int i=0; i<terms.length; i++) {
+				if (constants[i]>=0 && constants[i]!=terms[i])
+					return false;
+				if (sameAs[i]>=0 && terms[sameAs[i]]!=terms[i])
+					return false;
+			}
+			return true;
+		}
+	}
+
+	private class JoinNode {
+		RuleNode rule;
+		int level;//this is the level-th positive condition of the rule
+		AlphaMemory alpha;
+		int[] slots;//per term the binding slot of its variable, or -1 for a constant
+		boolean[] test;//per term: true if its variable was bound by an earlier condition, so it must be equal
+		int[] tested;//the terms with test, the join key is their values
+		HashMap<Object,Vector<int[]>> tokens=new HashMap<Object,Vector<int[]>>();//beta memory in front of us, by join key
+		HashMap<Object,Vector<int[]>> items=new HashMap<Object,Vector<int[]>>();//facts of our alpha memory, by join key
+
+		JoinNode(RuleNode rule, int level, Predicate condition, HashMap<String,Integer> slotOf) {
+			this.rule=rule;
+			this.level=level;
+			int n=condition.getTerms().size();
+			slots=new int[n];
+			test=new boolean[n];
+			int[] constants=new int[n];
+			int[] sameAs=new int[n];
+			HashMap<String,Integer> local=new HashMap<String,Integer>();//variables first bound by this condition -> their first term
+			for (int i=0; i<n; i++) {
+				Term t=condition.getTerm(i);
+				constants[i]=-1;
+				sameAs[i]=-1;
+				slots[i]=-1;
+				if (!t.var) {
+					constants[i]=t.symbol();
+				} else if (local.containsKey(t.term)) {
+					sameAs[i]=local.get(t.term);
+					slots[i]=slots[sameAs[i]];
+				} else if (slotOf.containsKey(t.term)) {
+					slots[i]=slotOf.get(t.term);
+					test[i]=true;
+				} else {
+					local.put(t.term, i);
+					slots[i]=slotOf.size();
+					slotOf.put(t.term, slots[i]);
+				}
+			}
+			int count=0;
+			for (int i=0; i<n; i++)
+				if (test[i])
+					count++;
+			tested=new int[count];
+			for (int i=0, j=0; i<n; i++)
+				if (test[i])
+					tested[j++]=i;
+			alpha=alphaMemory(condition.nameSymbol(), constants, sameAs);
+			for (int[] terms: alpha.items)
+				index(terms);
+
+			//keep the joins on a predicate sorted deepest first, see insert()
+			Vector<JoinNode> joins=joinsByPredicate.get(key(condition.nameSymbol(), n));
+			int at=0;
+			while (at<joins.size() && joins.get(at).level>=level)
+				at++;
+			joins.add(at, this);
+		}
+
+		Object factKey(int[] terms) {
+			int[] values=new int[tested.length];
+			for (int i=0; i<values.length; i++)
+				values[i]=terms[tested[i]];
+			return joinKey(values);
+		}
+
+		Object tokenKey(int[] token) {
+			int[] values=new int[tested.length];
+			for (int i=0; i<values.length; i++)
+				values[i]=token[slots[tested[i]]];
+			return joinKey(values);
+		}
+
+		void index(int[] terms) {
+			add(items, factKey(terms), terms);
+		}
+
+		void store(int[] token) {
+			add(tokens, tokenKey(token), token);
+		}
+
+		int[] join(int[] token, int[] terms) {
+			//Returns the token extended with the bindings of this fact (which has the same join key)
+			int[] result=token.clone();
+			for (int i=0; i<terms.length; i++) {
+				if (slots[i]>=0 && !test[i])
+					result[slots[i]]=terms[i];
+			}
+			return result;
+		}
+
+		void rightActivate(int[] terms) {
+			//A new fact in our alpha memory: join it with all partial matches before us that fit.
+			//Nothing adds to our own beta memory while we do this, only to deeper ones
+			Vector<int[]> fitting=tokens.get(factKey(terms));
+			if (fitting==null)
+				return;
+			for (int i=0; i<fitting.size(); i++)
+				rule.leftActivate(level+1, join(fitting.get(i), terms));
+		}
+
+		void leftActivate(int[] token) {
+			//A new partial match in front of us: store it and join it with all facts of our alpha memory that fit
+			store(token);
+			Vector<int[]> fitting=items.get(tokenKey(token));
+			if (fitting==null)
+				return;
+			for (int i=0; i<fitting.size(); i++)
+				rule.leftActivate(level+1, join(token, fitting.get(i)));
+		}
+	}
+
+	private class Filter {
+		//A negation or builtin, checked with the bindings of the positive conditions before it
+		Predicate condition;
+		int[] constants;//per term its constant, or -1 for a variable
+		int[] slots;//per term the slot of its variable if that is bound before this condition, or -1
+		int[] sameAs;//per unbound variable an earlier term with the same variable, or -1
+
+		Filter(Predicate condition, HashMap<String,Integer> slotOf) {
+			this.condition=condition;
+			int n=condition.getTerms().size();
+			constants=new int[n];
+			slots=new int[n];
+			sameAs=new int[n];
+			HashMap<String,Integer> unbound=new HashMap<String,Integer>();
+			for (int i=0; i<n; i++) {
+				Term t=condition.getTerm(i);
+				constants[i]=-1;
+				slots[i]=-1;
+				sameAs[i]=-1;
+				if (!t.var) {
+					constants[i]=t.symbol();
+				} else if (slotOf.containsKey(t.term)) {
+					slots[i]=slotOf.get(t.term);
+				} else if (unbound.containsKey(t.term)) {
+					sameAs[i]=unbound.get(t.term);
+				} else {
+					unbound.put(t.term, i);
+				}
+			}
+		}
+
+		boolean passes(int[] token) {
+			int[] values=new int[constants.length];
+			boolean bound=true;
+			for (int i=0; i<values.length; i++) {
+				values[i]=constants[i]>=0?constants[i]:slots[i]>=0?token[slots[i]]:-1;
+				if (values[i]<0)
+					bound=false;
+			}
+			if (condition.not)
+				return bound && values[0]!=values[1];
+			if (condition.eql)
+				return bound && values[0]==values[1];
+
+			//negation: true if no fact unifies with it
+			if (bound) {
+				Atom fact=Atom.lookup(0, condition.nameSymbol(), values);
+				return fact==null || !groundFacts.contains(fact);
+			}
+			Vector<int[]> all=factsByPredicate.get(key(condition.nameSymbol(), values.length));
+			if (all==null)
+				return true;
+			for (int[] terms: all) {
+				boolean unifies=true;
+				for (int i=0; i<values.length && unifies; i++) {
+					if (values[i]>=0)
+						unifies=values[i]==terms[i];
+					else if (sameAs[i]>=0)
+						unifies=terms[sameAs[i]]==terms[i];
+				}
+				if (unifies)
+					return false;
+			}
+			return true;
+		}
+	}
+
+	private class Conclusion {
+		int operator;
+		int name;
+		int[] constants;
+		int[] slots;
+
+		Conclusion(Predicate conclusion, HashMap<String,Integer> slotOf) {
+			operator=Atom.operator(conclusion);
+			name=conclusion.nameSymbol();
+			int n=conclusion.getTerms().size();
+			constants=new int[n];
+			slots=new int[n];
+			for (int i=0; i<n; i++) {
+				Term t=conclusion.getTerm(i);
+				slots[i]=t.var?slotOf.get(t.term):-1;
+				constants[i]=t.var?-1:t.symbol();
+			}
+		}
+
+		void derive(int[] token) {
+			int[] terms=new int[constants.length];
+			for (int i=0; i<terms.length; i++)
+				terms[i]=constants[i]>=0?constants[i]:token[slots[i]];
+			Atom fact=Atom.of(operator, name, terms);
+			if (derived.add(fact)) {
+				facts.add(new Sentence(fact.toPredicate()));
+				insert(name, terms);
+			}
+		}
+	}
+
+	private class RuleNode {
+		Vector<JoinNode> joins=new Vector<JoinNode>();
+		Vector<Filter> filters=new Vector<Filter>();
+		Vector<Conclusion> conclusions=new Vector<Conclusion>();
+		Vector<int[]> pending=new Vector<int[]>();//complete matches that have not fired yet
+
+		RuleNode(Sentence rule) {
+			HashMap<String,Integer> slotOf=new HashMap<String,Integer>();//variables bound by the positive conditions so far
+			for (Predicate condition: rule.conditions) {
+				if (condition.not || condition.eql || condition.neg)
+					filters.add(new Filter(condition, slotOf));
+				else
+					joins.add(new JoinNode(this, joins.size(), condition, slotOf));
+			}
+			for (Predicate conclusion: rule.conclusions) {
+				//a conclusion with a variable that no positive condition binds can never be bound, so it never fires
+				boolean bindable=true;
+				for (Term t: conclusion.getTerms())
+					bindable&=!t.var || slotOf.containsKey(t.term);
+				if (bindable)
+					conclusions.add(new Conclusion(conclusion, slotOf));
+			}
+			int[] empty=new int[slotOf.size()];
+			Arrays.fill(empty, -1);
+			if (joins.isEmpty())
+				pending.add(empty);//no positive conditions: the rule matches once, with no bindings
+			else
+				joins.get(0).store(empty);
+		}
+
+		void leftActivate(int level, int[] token) {
+			//A new partial match of the first level positive conditions
+			if (level==joins.size())
+				pending.add(token);
+			else
+				joins.get(level).leftActivate(token);
+		}
+
+		void fire() {
+			//First check the filters of all new matches, then add the conclusions, like the naive loop does per rule
+			Vector<int[]> matches=pending;
+			pending=new Vector<int[]>();
+			Vector<int[]> passed=new Vector<int[]>();
+			for (int[] token: matches) {
+				boolean ok=true;
+				for (int i=0; i<filters.size() && ok; i++)
+					ok=filters.get(i).passes(token);
+				if (ok)
+					passed.add(token);
+			}
+			for (int[] token: passed) {
+				for (Conclusion conclusion: conclusions)
+					conclusion.derive(token);
+			}
+		}
+	}
+}
@@ -0,0 +1,423 @@
+package leidenuniv.symbolicai.inference;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Vector;
+
+import leidenuniv.symbolicai.logic.Atom;
+import leidenuniv.symbolicai.logic.Clause;
+import leidenuniv.symbolicai.logic.FactStore;
+import leidenuniv.symbolicai.logic.KB;
+import leidenuniv.symbolicai.logic.Predicate;
+import leidenuniv.symbolicai.logic.RuleGraph;
+import leidenuniv.symbolicai.logic.Sentence;
+
+public class RuleCompiler {
+	//Forward chaining like MyAgent.forwardChain (by strata, semi-naive, the same facts), but every rule is compiled once
+	//into a chain of lambdas, a Step per condition, instead of being interpreted for every match. All that the
+	//interpreter works out per match is fixed when a rule is compiled:
+	// - the join order: the new facts first (for every positive condition a chain of its own), then every filter as soon
+	//   as the variables it sees are bound, else the positive condition with the most constant or bound terms
+	// - per term of a condition what to do with it: a constant or bound variable is part of the lookup, a new variable is
+	//   written to its slot (an int[] with a place per variable, nothing to undo), a repeated one is compared
+	// - filters that can never hold (!= or = with a variable that is masked there, see MyAgent.CompiledConditions)
+	//   and conclusions with a variable that no positive condition binds are left out
+	//So a Step only has loops over small arrays of fixed positions left, which the JIT can unroll and inline.
+	//Rules are kept by their Clause, so the rules of a KB that is chained again and again (programRules in planning)
+	//are compiled only once. Not for use by more than one thread at a time: a Step keeps its lookup key in place.
+	private HashMap<Clause,Program> programs=new HashMap<Clause,Program>();
+
+	public void compile(KB kb) {
+		//Compiles the rules of kb now, instead of when they are first chained
+		for (Sentence s: kb)
+			program(s);
+	}
+
+	public int size() {
+		//the number of compiled rules
+		return programs.size();
+	}
+
+	public KB forwardChain(KB kb) {
+		KB facts=new KB();
+		FactStore store=new FactStore();
+		Vector<Sentence> rules=kb.rules();
+		Program[] compiled=new Program[rules.size()];
+		for (int r=0; r<rules.size(); r++)
+			compiled[r]=program(rules.get(r));
+		RuleGraph graph=new RuleGraph(rules);
+		int[][] seen=new int[rules.size()][];//per rule, per condition: how many facts it had at the last evaluation
+		boolean[] dirty=new boolean[rules.size()];
+		Arrays.fill(dirty, true);
+		for (int s=0; s<graph.strata(); s++) {
+			boolean changed=true;
+			while (changed) {
+				changed=false;
+				for (int r: graph.stratum(s)) {
+					if (!dirty[r])
+						continue;
+					dirty[r]=false;
+					Program p=compiled[r];
+					int n=p.names.length;
+					int[] now=new int[n];
+					for (int i=0; i<n; i++) {
+						if (p.delta[i]!=null)
+							now[i]=store.count(p.names[i], p.arities[i]);
+					}
+					Run run=new Run(store, p.variables);
+					if (seen[r]==null) {//everything is new
+						run.from=new int[n];
+						run.to=now;
+						p.full.match(run);
+					} else {
+						//condition d matches a new fact, the ones before it only old facts, the ones after it any fact
+						for (int d=0; d<n; d++) {
+							if (p.delta[d]==null || seen[r][d]==now[d])
+								continue;
+							run.from=new int[n];
+							run.to=new int[n];
+							for (int i=0; i<n; i++) {
+								run.from[i]=i==d?seen[r][i]:0;
+								run.to[i]=i<d?seen[r][i]:now[i];
+							}
+							p.delta[d].match(run);
+						}
+					}
+					seen[r]=now;
+					for (Atom a: run.derived) {
+						Predicate fact=a.toPredicate();
+						if (store.add(fact)) {
+							facts.add(new Sentence(fact));
+							for (int reader: graph.readers(fact))
+								dirty[reader]=true;
+							changed=true;
+						}
+					}
+				}
+			}
+		}
+		return facts;
+	}
+
+	private Program program(Sentence s) {
+		if (s.conditions.isEmpty())//a fact, not worth keeping
+			return new Program(s);
+		Program p=programs.get(s.clause());
+		if (p==null) {
+			p=new Program(s);
+			programs.put(s.clause(), p);
+		}
+		return p;
+	}
+
+	private static class Run {
+		//One evaluation of a rule: the store and the ranges of positions its conditions match, the values of its variables
+		//and the conclusions found so far (they are added to the store after the evaluation)
+		FactStore store;
+		int[] from, to;
+		int[] slots;
+		Vector<Atom> derived=new Vector<Atom>();
+
+		Run(FactStore store, int variables) {
+			this.store=store;
+			slots=new int[variables];
+		}
+	}
+
+	private interface Step {
+		//Matches the rest of a rule, given the slots bound so far
+		void match(Run run);
+	}
+
+	private static class Program {
+		//A compiled rule: per positive condition the chain that starts with its new facts, and the chain for the first
+		//evaluation
+		int variables;
+		int[] names, arities;
+		Step full;
+		Step[] delta;//null for a filter
+
+		private Vector<Predicate> conditions;
+		private int[][] patterns;//per condition per term: its symbol, or -1-v for variable v
+		private boolean[] positive;
+		private boolean[][] masked;//per filter per term: a variable that no positive condition before it binds
+		private boolean[] bound;//per variable: does a positive condition bind it
+
+		Program(Sentence rule) {
+			conditions=rule.conditions;
+			Vector<String> vars=new Vector<String>();
+			int n=conditions.size();
+			names=new int[n];
+			arities=new int[n];
+			patterns=new int[n][];
+			positive=new boolean[n];
+			masked=new boolean[n][];
+			for (int i=0; i<n; i++) {
+				Predicate c=conditions.get(i);
+				names[i]=c.nameSymbol();
+				patterns[i]=CompiledRule.pattern(c, vars);
+				arities[i]=patterns[i].length;
+				positive[i]=!c.not && !c.eql && !c.neg;
+			}
+			Vector<Predicate> conclusions=rule.conclusions;
+			int[][] heads=new int[conclusions.size()][];
+			for (int k=0; k<heads.length; k++)
+				heads[k]=CompiledRule.pattern(conclusions.get(k), vars);
+			variables=vars.size();
+			bound=new boolean[variables];
+			for (int i=0; i<n; i++) {
+				masked[i]=new boolean[arities[i]];
+				for (int j=0; j<arities[i]; j++) {
+					int t=patterns[i][j];
+					if (t>=0)
+						continue;
+					if (positive[i])
+						bound[-1-t]=true;
+					else
+						masked[i][j]=!bound[-1-t];
+				}
+			}
+
+			Step emit=emit(conclusions, heads);
+			full=chain(order(-1), emit);
+			delta=new Step[n];
+			for (int d=0; d<n; d++) {
+				if (positive[d])
+					delta[d]=chain(order(d), emit);
+			}
+			conditions=null;
+			patterns=null;
+			masked=null;
+		}
+
+		private int[] order(int first) {
+			//The join order, starting with condition first if it is not -1
+			int n=patterns.length;
+			int[] result=new int[n];
+			boolean[] planned=new boolean[n];
+			boolean[] known=new boolean[variables];
+			for (int k=0; k<n; k++) {
+				int best=-1, bestBound=-1;
+				if (k==0 && first>=0)
+					best=first;
+				for (int i=0; i<n && best<0; i++) {//a filter that sees only bound variables
+					if (!planned[i] && !positive[i] && sees(i, known))
+						best=i;
+				}
+				for (int i=0; i<n && (best<0 || positive[best]) && !(k==0 && first>=0); i++) {
+					if (planned[i] || !positive[i])
+						continue;
+					int b=0;
+					for (int t: patterns[i])
+						b+=t>=0 || known[-1-t]?1:0;
+					if (b>bestBound) {
+						best=i;
+						bestBound=b;
+					}
+				}
+				result[k]=best;
+				planned[best]=true;
+				if (positive[best]) {
+					for (int t: patterns[best]) {
+						if (t<0)
+							known[-1-t]=true;
+					}
+				}
+			}
+			return result;
+		}
+		private boolean sees(int filter, boolean[] known) {
+			for (int j=0; j<patterns[filter].length; j++) {
+				int t=patterns[filter][j];
+				if (t<0 && !masked[filter][j] && !known[-1-t])
+					return false;
+			}
+			return true;
+		}
+
+		private Step chain(int[] order, Step emit) {
+			//The steps for the conditions in this order, built from the last one back
+			boolean[][] known=new boolean[order.length+1][variables];//per step the variables bound before it
+			for (int k=0; k<order.length; k++) {
+				known[k+1]=known[k].clone();
+				if (positive[order[k]]) {
+					for (int t: patterns[order[k]]) {
+						if (t<0)
+							known[k+1][-1-t]=true;
+					}
+				}
+			}
+			Step next=emit;
+			for (int k=order.length-1; k>=0; k--) {
+				int i=order[k];
+				Predicate c=conditions.get(i);
+				if (positive[i])
+					next=positive(i, known[k], next);
+				else if (c.neg)
+					next=negated(i, next);
+				else
+					next=compare(i, c.not, next);
+			}
+			return next;
+		}
+
+		private Step positive(int i, boolean[] known, Step next) {
+			//Looks up the facts in the range of condition i that have its constants and bound variables, binds its new
+			//variables to their terms and checks repeated ones
+			final int name=names[i], condition=i;
+			final int[] pattern=patterns[i];
+			final int[] key=new int[pattern.length];//constants, -1 for a variable
+			Vector<Integer> lookup=new Vector<Integer>(), bind=new Vector<Integer>(), same=new Vector<Integer>();
+			for (int j=0; j<pattern.length; j++) {
+				int t=pattern[j];
+				key[j]=t>=0?t:-1;
+				if (t>=0)
+					continue;
+				if (known[-1-t])
+					lookup.add(j);
+				else {
+					int first=j;
+					for (int f=0; f<j; f++) {
+						if (pattern[f]==t) {
+							first=f;
+							break;
+						}
+					}
+					if (first==j)
+						bind.add(j);
+					else {
+						same.add(j);
+						same.add(first);
+					}
+				}
+			}
+			final int[] lookupAt=positions(lookup), lookupSlot=slots(pattern, lookupAt);
+			final int[] bindAt=positions(bind), bindSlot=slots(pattern, bindAt);
+			final int[] sameAt=positions(same);
+			//the candidates share one constant or bound term with the key, or all of them (then there is nothing to check)
+			int keyed=pattern.length-bindAt.length-sameAt.length/2;
+			final boolean check=keyed>1 && keyed<pattern.length;
+			return run -> {
+				int[] slots=run.slots;
+				for (int l=0; l<lookupAt.length; l++)
+					key[lookupAt[l]]=slots[lookupSlot[l]];
+				FactStore.Bucket b=run.store.candidates(name, key);
+				int to=run.to[condition];
+				for (int c=b.first(run.from[condition]); c<b.size() && b.position(c)<to; c++) {
+					Atom a=b.atom(c);
+					if (check && !hasKey(a, key))
+						continue;
+					boolean match=true;
+					for (int s=0; s<sameAt.length && match; s+=2)
+						match=a.term(sameAt[s])==a.term(sameAt[s+1]);
+					if (!match)
+						continue;
+					for (int v=0; v<bindAt.length; v++)
+						slots[bindSlot[v]]=a.term(bindAt[v]);
+					next.match(run);
+				}
+			};
+		}
+		private static boolean hasKey(Atom a, int[] key) {
+			for (int j=0; j<key.length; j++) {
+				if (key[j]>=0 && a.term(j)!=key[j])
+					return false;
+			}
+			return true;
+		}
+
+		private Step negated(int i, Step next) {
+			//!p: no fact has its constants and the bound variables it sees; the variables it does not see stay variables
+			final int name=names[i];
+			final int[] pattern=patterns[i];
+			final int[] key=pattern.clone();
+			Vector<Integer> lookup=new Vector<Integer>();
+			for (int j=0; j<pattern.length; j++) {
+				if (pattern[j]<0 && !masked[i][j])
+					lookup.add(j);
+			}
+			final int[] lookupAt=positions(lookup), lookupSlot=slots(pattern, lookupAt);
+			return run -> {
+				for (int l=0; l<lookupAt.length; l++)
+					key[lookupAt[l]]=run.slots[lookupSlot[l]];
+				if (!run.store.exists(name, key))
+					next.match(run);
+			};
+		}
+
+		private Step compare(int i, boolean different, Step next) {
+			//!= or =, decided here already if both terms are constants, or if one is a variable it does not see
+			int[] pattern=patterns[i];
+			if (masked[i][0] || masked[i][1])
+				return run -> {};
+			final int a=pattern[0], b=pattern[1];
+			if (a>=0 && b>=0)
+				return (a!=b)==different?next:run -> {};
+			if (a>=0 || b>=0) {
+				final int constant=a>=0?a:b, slot=-1-(a>=0?b:a);
+				if (different)
+					return run -> {
+						if (run.slots[slot]!=constant)
+							next.match(run);
+					};
+				return run -> {
+					if (run.slots[slot]==constant)
+						next.match(run);
+				};
+			}
+			final int slotA=-1-a, slotB=-1-b;
+			if (different)
+				return run -> {
+					if (run.slots[slotA]!=run.slots[slotB])
+						next.match(run);
+				};
+			return run -> {
+				if (run.slots[slotA]==run.slots[slotB])
+					next.match(run);
+			};
+		}
+
+		private Step emit(Vector<Predicate> conclusions, int[][] heads) {
+			//Adds the conclusions to the run; one with a variable that no positive condition binds is never a fact
+			Vector<Integer> kept=new Vector<Integer>();
+			for (int k=0; k<heads.length; k++) {
+				boolean bindable=true;
+				for (int t: heads[k])
+					bindable&=t>=0 || bound[-1-t];
+				if (bindable)
+					kept.add(k);
+			}
+			final int[] operators=new int[kept.size()], names=new int[kept.size()];
+			final int[][] terms=new int[kept.size()][];
+			for (int k=0; k<kept.size(); k++) {
+				Predicate p=conclusions.get(kept.get(k));
+				operators[k]=Atom.operator(p);
+				names[k]=p.nameSymbol();
+				terms[k]=heads[kept.get(k)];
+			}
+			return run -> {
+				for (int k=0; k<terms.length; k++) {
+					int[] head=terms[k];
+					int[] values=new int[head.length];
+					for (int j=0; j<head.length; j++)
+						values[j]=head[j]>=0?head[j]:run.slots[-1-head[j]];
+					run.derived.add(Atom.of(operators[k], names[k], values));
+				}
+			};
+		}
+
+		private static int[] positions(Vector<Integer> list) {
+			int[] result=new int[list.size()];
+			for (int i=0; i<result.length; i++)
+				result[i]=list.get(i);
+			return result;
+		}
+		private static int[] slots(int[] pattern, int[] at) {
+			//the variable numbers of the terms at these positions
+			int[] result=new int[at.length];
+			for (int i=0; i<at.length; i++)
+				result[i]=-1-pattern[at[i]];
+			return result;
+		}
+	}
+}
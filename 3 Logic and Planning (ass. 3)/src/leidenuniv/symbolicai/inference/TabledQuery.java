@@ -0,0 +1,333 @@
+package leidenuniv.symbolicai.inference;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Vector;
+
+import leidenuniv.symbolicai.logic.Atom;
+import leidenuniv.symbolicai.logic.Bindings;
+import leidenuniv.symbolicai.logic.FactStore;
+import leidenuniv.symbolicai.logic.KB;
+import leidenuniv.symbolicai.logic.Predicate;
+import leidenuniv.symbolicai.logic.RuleGraph;
+import leidenuniv.symbolicai.logic.Sentence;
+import leidenuniv.symbolicai.logic.Term;
+
+public class TabledQuery {
+	//Answers queries on a KB: which of the facts that forward chaining would derive unify with a pattern (with any operator,
+	//like unifiesWith), and with which bindings. Instead of deriving everything, it chains backwards from the pattern,
+	//with tabling: every call (a condition with the constants it has when it is reached, like ancestor(p3,Z)) gets a table
+	//of its answers, and a call that is already being answered uses the answers found so far instead of recursing forever.
+	//The tables of a call and of everything it reads are evaluated again and again until none of them grows; then they
+	//are complete, and stay with the query for later calls. A negated condition first completes the table of its call
+	//(which in a stratified KB never needs the table being answered), then checks that it is empty.
+	//If the rules that the pattern depends on have a negation inside a stratum (see RuleGraph), answers would depend on the
+	//order in which the rules run; then the query runs those rules forwards, in the order forwardChain does.
+	//The KB must not change while the query is used.
+	private Vector<Sentence> rules;
+	private FactStore facts=new FactStore();//the facts of the KB
+	private HashMap<Long,Vector<int[]>> concluding=new HashMap<Long,Vector<int[]>>();//name/arity -> {rule, conclusion}
+	private CompiledRule[] compiled;//per rule, made when it is first used
+	private HashMap<String,Table> tables=new HashMap<String,Table>();//call -> its table
+	private HashMap<Long,FactStore> forwards=new HashMap<Long,FactStore>();//name/arity -> all facts, if it is not stratified
+	private HashSet<Long> stratified=new HashSet<Long>();//name/arity that is answered with tables
+
+	private int round, rounds;//the current round of evaluation, the number of rounds so far
+	private boolean changed;//did a table grow in the current round
+	private Vector<Table> evaluated;//the tables evaluated in the current round
+
+	public TabledQuery(KB kb) {
+		rules=kb.rules();
+		compiled=new CompiledRule[rules.size()];
+		for (int r=0; r<rules.size(); r++) {
+			Sentence s=rules.get(r);
+			for (int c=0; c<s.conclusions.size(); c++) {
+				Predicate conclusion=s.conclusions.get(c);
+				if (s.conditions.isEmpty()) {
+					if (conclusion.bound())
+						facts.add(conclusion);
+					continue;
+				}
+				Long key=key(conclusion.nameSymbol(), conclusion.getTerms().size());
+				if (!concluding.containsKey(key))
+					concluding.put(key, new Vector<int[]>());
+				concluding.get(key).add(new int[] {r, c});
+			}
+		}
+	}
+
+	public Vector<Predicate> facts(Predicate pattern) {
+		//The facts (with their operators) that forward chaining derives from the KB and that unify with pattern
+		Vector<Predicate> result=new Vector<Predicate>();
+		for (Atom a: answers(pattern))
+			result.add(a.toPredicate());
+		return result;
+	}
+	public Vector<HashMap<String,String>> substitutions(Predicate pattern) {
+		//The substitutions that make pattern equal to such a fact (one per fact, so maybe the same one twice)
+		int[] call=call(pattern);
+		String[] names=new String[call.length];
+		for (int i=0; i<call.length; i++) {
+			if (call[i]<0)
+				names[-1-call[i]]=pattern.getTerm(i).term;
+		}
+		Vector<HashMap<String,String>> result=new Vector<HashMap<String,String>>();
+		for (Atom a: answers(pattern)) {
+			Bindings bindings=new Bindings(call.length);
+			bindings.unify(call, a);
+			result.add(bindings.toMap(names));
+		}
+		return result;
+	}
+	public boolean entails(Predicate pattern) {
+		return !answers(pattern).isEmpty();
+	}
+
+	private Vector<Atom> answers(Predicate pattern) {
+		int name=pattern.nameSymbol();
+		int[] call=call(pattern);
+		Long key=key(name, call.length);
+		if (!stratified.contains(key) && !forwards.containsKey(key))
+			relevant(key);
+		if (stratified.contains(key)) {
+			Table t=table(name, call);
+			complete(t);
+			return t.answers;
+		}
+		Vector<Atom> result=new Vector<Atom>();
+		FactStore all=forwards.get(key);
+		FactStore.Bucket b=all.candidates(name, free(call));
+		for (int i=0; i<b.size(); i++) {
+			if (matches(call, b.atom(i)))
+				result.add(b.atom(i));
+		}
+		return result;
+	}
+
+	private void relevant(Long goal) {
+		//Finds the rules that goal depends on, and decides how to answer it: with tables if they are stratified, else by
+		//running them (and the facts) forwards
+		HashSet<Long> predicates=new HashSet<Long>();
+		Vector<Long> todo=new Vector<Long>();
+		predicates.add(goal);
+		todo.add(goal);
+		Vector<Sentence> relevant=new Vector<Sentence>();
+		while (!todo.isEmpty()) {
+			Vector<int[]> deriving=concluding.get(todo.remove(todo.size()-1));
+			if (deriving==null)
+				continue;
+			for (int[] rc: deriving) {
+				Sentence rule=rules.get(rc[0]);
+				if (!relevant.contains(rule))
+					relevant.add(rule);
+				for (Predicate condition: rule.conditions) {
+					Long key=key(condition.nameSymbol(), condition.getTerms().size());
+					if (!condition.not && !condition.eql && predicates.add(key))
+						todo.add(key);
+				}
+			}
+		}
+		if (new RuleGraph(relevant).stratified()) {
+			stratified.add(goal);
+			return;
+		}
+		KB kb=new KB();
+		for (Sentence s: rules) {
+			if (s.conditions.isEmpty() || relevant.contains(s))
+				kb.add(s);
+		}
+		FactStore all=new FactStore();
+		for (Sentence fact: new ReteNetwork(kb).run())
+			all.add(fact.conclusions.get(0));
+		forwards.put(goal, all);
+	}
+
+	private Table table(int name, int[] call) {
+		StringBuilder key=new StringBuilder().append(name);
+		for (int t: call)
+			key.append(',').append(t);
+		Table t=tables.get(key.toString());
+		if (t==null) {
+			t=new Table(name, call);
+			tables.put(key.toString(), t);
+		}
+		return t;
+	}
+
+	private void complete(Table t) {
+		//Evaluates t and the tables it reads until none of them grows
+		if (t.complete)
+			return;
+		int outerRound=round;
+		boolean outerChanged=changed;
+		Vector<Table> outerEvaluated=evaluated;
+		boolean grew=false;
+		do {
+			round=++rounds;
+			changed=false;
+			evaluated=new Vector<Table>();
+			evaluate(t);
+			grew|=changed;
+		} while (changed);
+		for (Table done: evaluated)
+			done.complete=true;
+		round=outerRound;
+		changed=outerChanged || grew;//an outer round may have read these tables before they grew
+		evaluated=outerEvaluated;
+	}
+
+	private Vector<Atom> read(int name, int[] call) {
+		//The answers of a call so far, evaluating its table once per round
+		Table t=table(name, call);
+		if (!t.complete && t.round!=round)
+			evaluate(t);
+		return t.answers;
+	}
+
+	private void evaluate(Table t) {
+		t.round=round;
+		evaluated.add(t);
+		FactStore.Bucket b=facts.candidates(t.name, free(t.call));
+		for (int i=0; i<b.size(); i++)
+			t.add(b.atom(i));
+		Vector<int[]> deriving=concluding.get(key(t.name, t.call.length));
+		if (deriving==null)
+			return;
+		for (int[] rc: deriving) {
+			if (compiled[rc[0]]==null)
+				compiled[rc[0]]=new CompiledRule(rules.get(rc[0]));
+			CompiledRule c=compiled[rc[0]];
+			Bindings bindings=new Bindings(c.variables);
+			if (c.bindable[rc[1]] && c.bindHead(rc[1], t.call, bindings))
+				body(t, c, rc[1], 0, bindings);
+		}
+	}
+
+	private void body(Table t, CompiledRule c, int conclusion, int index, Bindings bindings) {
+		//Matches the conditions index... of rule c in written order, and adds the conclusion for every match to t
+		if (index==c.patterns.length) {
+			int[] terms=c.values(c.heads[conclusion], bindings);
+			for (int term: terms) {
+				if (term<0)//a conclusion with a variable that no condition binds is not a fact
+					return;
+			}
+			t.add(Atom.of(c.operators[conclusion], t.name, terms));
+			return;
+		}
+		Predicate condition=c.conditions.get(index);
+		int[] values=c.values(c.patterns[index], bindings);
+		boolean bound=true;
+		for (int j=0; j<values.length; j++) {
+			if (c.masked[index][j])
+				values[j]=-1;
+			bound&=values[j]>=0;
+		}
+		if (condition.not) {
+			if (bound && values[0]!=values[1])
+				body(t, c, conclusion, index+1, bindings);
+			return;
+		}
+		if (condition.eql) {
+			if (bound && values[0]==values[1])
+				body(t, c, conclusion, index+1, bindings);
+			return;
+		}
+		int[] call=variant(values, c.patterns[index]);
+		if (condition.neg) {
+			Table negated=table(c.names[index], call);
+			complete(negated);
+			if (negated.answers.isEmpty())
+				body(t, c, conclusion, index+1, bindings);
+			return;
+		}
+		Vector<Atom> answers=read(c.names[index], call);
+		for (int i=0; i<answers.size(); i++) {//the answers can grow while we are at it
+			int mark=bindings.mark();
+			if (bindings.unify(c.patterns[index], answers.get(i)))
+				body(t, c, conclusion, index+1, bindings);
+			bindings.undo(mark);
+		}
+	}
+
+	private static int[] call(Predicate p) {
+		//The terms of p as a call: constants as symbols, the k-th different variable as -1-k
+		int[] result=new int[p.getTerms().size()];
+		Vector<String> variables=new Vector<String>();
+		for (int i=0; i<result.length; i++) {
+			Term t=p.getTerm(i);
+			if (t.var) {
+				if (!variables.contains(t.term))
+					variables.add(t.term);
+				result[i]=-1-variables.indexOf(t.term);
+			} else
+				result[i]=t.symbol();
+		}
+		return result;
+	}
+	private static int[] variant(int[] values, int[] pattern) {
+		//The call of a condition: the values of its bound terms, and its free variables numbered as in call()
+		int[] result=new int[values.length];
+		int free=0;
+		for (int i=0; i<values.length; i++) {
+			if (values[i]>=0) {
+				result[i]=values[i];
+				continue;
+			}
+			result[i]=-1-free;
+			for (int j=0; j<i; j++) {
+				if (values[j]<0 && pattern[j]==pattern[i])
+					result[i]=result[j];
+			}
+			if (result[i]==-1-free)
+				free++;
+		}
+		return result;
+	}
+	private static int[] free(int[] call) {
+		//-1 for every variable, for FactStore.candidates
+		int[] result=new int[call.length];
+		for (int i=0; i<call.length; i++)
+			result[i]=Math.max(call[i], -1);
+		return result;
+	}
+	private static boolean matches(int[] call, Atom fact) {
+		//constants must be equal, and so must the values of a repeated variable
+		for (int i=0; i<call.length; i++) {
+			if (call[i]>=0) {
+				if (call[i]!=fact.term(i))
+					return false;
+			} else {
+				for (int j=0; j<i; j++) {
+					if (call[j]==call[i] && fact.term(j)!=fact.term(i))
+						return false;
+				}
+			}
+		}
+		return true;
+	}
+	static Long key(int name, int arity) {
+		return ((long)name<<32)|arity;
+	}
+
+	private class Table {
+		//The answers of one call: facts that match it, with any operator
+		int name;
+		int[] call;
+		Vector<Atom> answers=new Vector<Atom>();
+		HashSet<Atom> known=new HashSet<Atom>();
+		boolean complete;
+		int round;//the round in which it was evaluated last
+
+		Table(int name, int[] call) {
+			this.name=name;
+			this.call=call;
+		}
+
+		void add(Atom fact) {
+			if (matches(call, fact) && known.add(fact)) {
+				answers.add(fact);
+				changed=true;
+			}
+		}
+	}
+}
@@ -0,0 +1,126 @@
+package leidenuniv.symbolicai.logic;
+
+import java.util.Arrays;
+
+public final class Atom {
+	//An immutable, hash-consed predicate: its operator, name and terms as symbol numbers (see Symbols), with the hash
+	//computed once. There is only one Atom for all Stringwise equal predicates, so Atoms can be compared with ==.
+	//Atoms nobody refers to anymore are garbage collected.
+	public static final String[] OPERATORS={"","!","*","~","_","!=","=","+","-"};//in the order Predicate.toString checks them
+
+	public final int operator;//index in OPERATORS
+	public final int name;
+	private final int[] terms;
+	private final int hash;
+	private Atom plain;//this atom without operator
+
+	private static final WeakTable<Atom> table=new WeakTable<Atom>();
+
+	private Atom(int operator, int name, int[] terms) {
+		this.operator=operator;
+		this.name=name;
+		this.terms=terms;
+		//a large odd multiplier instead of 31, with small symbol numbers 31*a+b would collide for many terms a,b
+		int h=operator*0x9E3779B1+name;
+		for (int t: terms)
+			h=h*0x9E3779B1+t;
+		hash=h;
+	}
+
+	public static Atom of(Predicate p) {
+		//The atom of p, made if it does not exist yet
+		return intern(new Atom(operator(p), p.nameSymbol(), symbols(p)));
+	}
+	public static Atom lookup(Predicate p) {
+		//The atom of p if it exists, else null (then nothing can contain p)
+		return find(new Atom(operator(p), p.nameSymbol(), symbols(p)));
+	}
+	public static Atom of(int operator, int name, int[] terms) {
+		return intern(new Atom(operator, name, terms.clone()));
+	}
+	public static Atom lookup(int operator, int name, int[] terms) {
+		return find(new Atom(operator, name, terms));
+	}
+	static Atom probe(Predicate p) {
+		//An atom equal to that of p, which is not the one instance: only to look up in a hash table of atoms. Unlike
+		//lookup it needs no lock on the table of all atoms, so threads that look up facts don't wait for each other
+		return new Atom(operator(p), p.nameSymbol(), symbols(p));
+	}
+	static Atom probe(int operator, int name, int[] terms) {
+		return new Atom(operator, name, terms);
+	}
+
+	public static int operator(Predicate p) {
+		return p.neg?1:p.adopt?2:p.drop?3:p.act?4:p.not?5:p.eql?6:p.add?7:p.del?8:0;
+	}
+	private static int[] symbols(Predicate p) {
+		int[] result=new int[p.terms.size()];
+		for (int i=0; i<result.length; i++)
+			result[i]=p.terms.get(i).symbol();
+		return result;
+	}
+	private static Atom find(Atom x) {
+		return table.find(x);
+	}
+	private static Atom intern(Atom x) {
+		return table.intern(x);
+	}
+
+	public Atom withoutOperator() {
+		//The same atom without operator: +at(a) -> at(a)
+		if (operator==0)
+			return this;
+		if (plain==null)
+			plain=intern(new Atom(0, name, terms));
+		return plain;
+	}
+	public int arity() {
+		return terms.length;
+	}
+	public int term(int i) {
+		return terms[i];
+	}
+	public boolean bound() {
+		for (int t: terms) {
+			if (Symbols.isVariable(t))
+				return false;
+		}
+		return true;
+	}
+	public Predicate toPredicate() {
+		Predicate p=new Predicate(operator, name, terms.length);
+		for (int t: terms)
+			p.terms.add(new Term(t));
+		return p;
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+	@Override
+	public boolean equals(Object o) {
+		//structural, only needed to find the one instance in the table; everybody else can use ==
+		if (this==o)
+			return true;
+		if (!(o instanceof Atom))
+			return false;
+		Atom a=(Atom)o;
+		return hash==a.hash && operator==a.operator && name==a.name && Arrays.equals(terms, a.terms);
+	}
+	@Override
+	public String toString() {
+		//The same string as Predicate.toString
+		StringBuilder result=new StringBuilder(OPERATORS[operator]).append(Symbols.string(name));
+		if (terms.length>0) {
+			result.append('(');
+			for (int i=0; i<terms.length; i++) {
+				if (i>0)
+					result.append(',');
+				result.append(Symbols.string(terms[i]));
+			}
+			result.append(')');
+		}
+		return result.toString();
+	}
+}
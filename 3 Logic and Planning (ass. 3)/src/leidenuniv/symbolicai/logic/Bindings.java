@@ -0,0 +1,59 @@
+package leidenuniv.symbolicai.logic;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+public class Bindings {
+	//Variable bindings for unification, like the binding environment of a WAM: the variables of a rule are numbered,
+	//values[v] is the symbol bound to variable v (or -1), and the trail remembers the order in which variables were bound.
+	//Backtracking to an earlier mark() unbinds everything bound since, so trying the next fact costs no allocation.
+	//A substitution map is only made when somebody asks for it (toMap).
+	private int[] values;
+	private int[] trail;
+	private int top;
+
+	public Bindings(int variables) {
+		values=new int[variables];
+		Arrays.fill(values, -1);
+		trail=new int[variables];
+	}
+	public int get(int variable) {
+		return values[variable];
+	}
+	public void bind(int variable, int value) {
+		values[variable]=value;
+		trail[top++]=variable;
+	}
+	public boolean unify(int[] pattern, Atom fact) {
+		//Unifies a pattern (a symbol, or -1-v for variable v, per term) with a bound fact, binding the free variables.
+		//On failure the caller undoes the bindings made so far with undo(mark)
+		for (int i=0; i<pattern.length; i++) {
+			int t=pattern[i];
+			int value=fact.term(i);
+			if (t>=0) {
+				if (t!=value)
+					return false;
+			} else if (values[-1-t]<0) {
+				bind(-1-t, value);
+			} else if (values[-1-t]!=value)
+				return false;
+		}
+		return true;
+	}
+	public int mark() {
+		return top;
+	}
+	public void undo(int mark) {
+		while (top>mark)
+			values[trail[--top]]=-1;
+	}
+	public HashMap<String,String> toMap(String[] names) {
+		//The bindings as a substitution, names[v] is the name of variable v
+		HashMap<String,String> result=new HashMap<String,String>();
+		for (int v=0; v<values.length; v++) {
+			if (values[v]>=0)
+				result.put(names[v], Symbols.string(values[v]));
+		}
+		return result;
+	}
+}
@@ -0,0 +1,108 @@
+package leidenuniv.symbolicai.logic;
+
+import java.util.Arrays;
+
+public final class Clause {
+	//An immutable sentence: its conditions and conclusions as (hash-consed) Atoms, with the hash computed once.
+	//Stringwise equal sentences have equal Clauses, so KB can look sentences up without building strings.
+	//Clauses themselves are not hash-consed: every KB sentence has its own, which costs less than a weak table entry
+	//per sentence when a KB holds millions of facts.
+	private final Atom[] conditions;
+	private final Atom[] conclusions;
+	private final int hash;
+
+	private static final Atom[] NONE=new Atom[0];
+
+	private Clause(Atom[] conditions, Atom[] conclusions) {
+		this.conditions=conditions;
+		this.conclusions=conclusions;
+		hash=31*Arrays.hashCode(conditions)+Arrays.hashCode(conclusions);
+	}
+
+	public static Clause of(Sentence s) {
+		//The clause of s
+		Atom[] conditions=new Atom[s.conditions.size()];
+		for (int i=0; i<conditions.length; i++)
+			conditions[i]=Atom.of(s.conditions.get(i));
+		Atom[] conclusions=new Atom[s.conclusions.size()];
+		for (int i=0; i<conclusions.length; i++)
+			conclusions[i]=Atom.of(s.conclusions.get(i));
+		return new Clause(conditions, conclusions);
+	}
+	public static Clause of(Atom fact) {
+		//The clause of a sentence that is just this fact
+		return new Clause(NONE, new Atom[] {fact});
+	}
+	public static Clause lookup(Predicate fact) {
+		//The clause of the sentence that is just this fact, or null if its atom does not exist (then no KB can contain it)
+		Atom a=Atom.lookup(fact);
+		return a==null?null:new Clause(NONE, new Atom[] {a});
+	}
+
+	public int conditions() {
+		return conditions.length;
+	}
+	public Atom condition(int i) {
+		return conditions[i];
+	}
+	public int conclusions() {
+		return conclusions.length;
+	}
+	public Atom conclusion(int i) {
+		return conclusions[i];
+	}
+
+	public long fingerprint() {
+		//A 64 bit hash, for the fingerprint of a KB (the XOR of those of its sentences, see KB.fingerprint), for which the
+		//32 bits of hashCode would collide too often. Symbol numbers differ between runs, and so do fingerprints.
+		long h=conditions.length;
+		for (Atom a: conditions)
+			h=mix(h, a);
+		for (Atom a: conclusions)
+			h=mix(h, a);
+		h=(h^(h>>>33))*0xFF51AFD7ED558CCDL;
+		h=(h^(h>>>33))*0xC4CEB9FE1A85EC53L;
+		return h^(h>>>33);
+	}
+	private static long mix(long h, Atom a) {
+		h=(h^a.operator)*0x9E3779B97F4A7C15L;
+		h=(h^a.name)*0x9E3779B97F4A7C15L;
+		h=(h^a.arity())*0x9E3779B97F4A7C15L;
+		for (int i=0; i<a.arity(); i++)
+			h=(h^a.term(i))*0x9E3779B97F4A7C15L;
+		return h^(h>>>29);
+	}
+
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+	@Override
+	public boolean equals(Object o) {
+		//structural, the atoms themselves are compared with ==
+		if (this==o)
+			return true;
+		if (!(o instanceof Clause))
+			return false;
+		Clause c=(Clause)o;
+		if (hash!=c.hash || conditions.length!=c.conditions.length || conclusions.length!=c.conclusions.length)
+			return false;
+		for (int i=0; i<conditions.length; i++)
+			if (conditions[i]!=c.conditions[i])
+				return false;
+		for (int i=0; i<conclusions.length; i++)
+			if (conclusions[i]!=c.conclusions[i])
+				return false;
+		return true;
+	}
+	@Override
+	public String toString() {
+		//The same string as Sentence.toString
+		StringBuilder result=new StringBuilder();
+		for (int i=0; i<conditions.length; i++)
+			result.append(conditions[i]).append(i==conditions.length-1?">":"&");
+		for (int i=0; i<conclusions.length; i++)
+			result.append(i>0?"&":"").append(conclusions[i]);
+		return result.toString();
+	}
+}
@@ -0,0 +1,218 @@
+package leidenuniv.symbolicai.logic;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+
+public class FactStore {
+	//A set of bound facts for inference, indexed so that a condition only looks at the facts that can unify with it:
+	//per predicate name/arity, per argument position and value (parent(joost,X) only sees the parent facts with joost first)
+	//and per complete fact (so a bound negated condition like !visited(a) is a single lookup).
+	//Like unifiesWith, lookups ignore the operator of a fact: at(X) finds +at(a) as well.
+	//Every fact has a position: the number of facts of its predicate that were added before it.
+	//Lookups can be limited to a range of positions, semi-naive evaluation uses that to only look at the new facts.
+	//Lookups only read the store, and look for an equal atom (Atom.probe) instead of the one instance, so the threads of
+	//a parallel round (see MyAgent.setParallelism) can look up facts at the same time without taking a lock.
+	private HashSet<Atom> keys;
+	private HashMap<Long,PredicateIndex> predicates;//name/arity -> its facts
+	private HashMap<Atom,Bucket> ground;//fact without operator -> the facts (with any operator)
+	private static final Bucket EMPTY=new Bucket();
+
+	public FactStore() {
+		keys=new HashSet<Atom>();
+		predicates=new HashMap<Long,PredicateIndex>();
+		ground=new HashMap<Atom,Bucket>();
+	}
+	public boolean add(Predicate fact) {
+		//Adds a bound fact, returns false if it was already present (Stringwise equal, operator included, just like KB)
+		Atom atom=Atom.of(fact);
+		if (!keys.add(atom))
+			return false;
+		int arity=atom.arity();
+		Long key=key(atom.name, arity);
+		PredicateIndex index=predicates.get(key);
+		if (index==null) {
+			index=new PredicateIndex(arity);
+			predicates.put(key, index);
+		}
+		int position=index.all.size();
+		index.all.add(fact, atom, position);
+		for (int i=0; i<arity; i++) {
+			Bucket b=index.arguments.get(i).get(atom.term(i));
+			if (b==null) {
+				b=new Bucket();
+				index.arguments.get(i).put(atom.term(i), b);
+			}
+			b.add(fact, atom, position);
+		}
+		Bucket b=ground.get(atom.withoutOperator());
+		if (b==null) {
+			b=new Bucket();
+			ground.put(atom.withoutOperator(), b);
+		}
+		b.add(fact, atom, position);
+		return true;
+	}
+	public boolean contains(Predicate fact) {
+		//returns true if the exact fact (operator included) is in the store
+		return keys.contains(Atom.probe(fact));
+	}
+	public int size() {
+		return keys.size();
+	}
+	public int count(Predicate p) {
+		//The number of facts with the name and arity of p
+		PredicateIndex index=predicates.get(key(p.nameSymbol(), p.terms.size()));
+		return index==null?0:index.all.size();
+	}
+	public int count(int name, int arity) {
+		//The same for a predicate given as symbol number and arity
+		PredicateIndex index=predicates.get(key(name, arity));
+		return index==null?0:index.all.size();
+	}
+	public int distinct(int name, int arity, int position) {
+		//The number of different values at an argument position of a predicate, a statistic for join ordering:
+		//binding that argument leaves about count/distinct facts
+		PredicateIndex index=predicates.get(key(name, arity));
+		return index==null?0:index.arguments.get(position).size();
+	}
+	public Bucket candidates(Predicate p) {
+		//The smallest bucket that holds all facts that can unify with p: its ground bucket if p is bound,
+		//else the bucket of the bound argument with the fewest facts, else all facts of the predicate.
+		int[] terms=new int[p.terms.size()];
+		for (int i=0; i<terms.length; i++) {
+			Term t=p.getTerm(i);
+			terms[i]=t.var?-1:t.symbol();
+		}
+		return candidates(p.nameSymbol(), terms);
+	}
+	public Bucket candidates(int name, int[] terms) {
+		//The same for a predicate given as symbol numbers, with -1 for the unbound terms
+		boolean bound=true;
+		for (int t: terms)
+			bound&=t>=0;
+		if (bound) {
+			Bucket b=ground.get(Atom.probe(0, name, terms));
+			return b==null?EMPTY:b;
+		}
+		PredicateIndex index=predicates.get(key(name, terms.length));
+		if (index==null)
+			return EMPTY;
+		Bucket best=index.all;
+		for (int i=0; i<terms.length; i++) {
+			if (terms[i]>=0) {
+				Bucket b=index.arguments.get(i).get(terms[i]);
+				if (b==null)
+					return EMPTY;
+				if (b.size()<best.size())
+					best=b;
+			}
+		}
+		return best;
+	}
+	public boolean exists(Predicate p) {
+		//returns true if any fact unifies with p, the check for a negated condition (O(1) if p is bound)
+		int[] pattern=new int[p.terms.size()];
+		for (int i=0; i<pattern.length; i++) {
+			Term t=p.getTerm(i);
+			pattern[i]=t.var?-1-i:t.symbol();
+			for (int j=0; j<i; j++) {
+				if (t.var && p.getTerm(j).term.equals(t.term))
+					pattern[i]=pattern[j];//the same variable
+			}
+		}
+		return exists(p.nameSymbol(), pattern);
+	}
+	public boolean exists(int name, int[] pattern) {
+		//The same for a predicate given as symbol numbers, where a negative number -1-v stands for variable v:
+		//terms with the same variable must have the same value in the fact
+		int[] terms=new int[pattern.length];
+		boolean bound=true;
+		for (int i=0; i<pattern.length; i++) {
+			terms[i]=pattern[i]>=0?pattern[i]:-1;
+			bound&=pattern[i]>=0;
+		}
+		Bucket b=candidates(name, terms);
+		if (bound)
+			return b.size()>0;
+		for (int i=0; i<b.size(); i++) {
+			if (matches(pattern, b.atom(i)))
+				return true;
+		}
+		return false;
+	}
+	static boolean matches(int[] pattern, Atom fact) {
+		//unification without building the substitution: constants must be equal, and so must the values of a repeated variable
+		for (int i=0; i<pattern.length; i++) {
+			if (pattern[i]>=0) {
+				if (pattern[i]!=fact.term(i))
+					return false;
+			} else {
+				for (int j=0; j<i; j++) {
+					if (pattern[j]==pattern[i] && fact.term(j)!=fact.term(i))
+						return false;
+				}
+			}
+		}
+		return true;
+	}
+	private static Long key(int name, int arity) {
+		return ((long)name<<32)|arity;
+	}
+
+	private static class PredicateIndex {
+		//All facts of one predicate, and per argument position: value -> the facts with that value there
+		Bucket all=new Bucket();
+		ArrayList<HashMap<Integer,Bucket>> arguments;
+
+		PredicateIndex(int arity) {
+			arguments=new ArrayList<HashMap<Integer,Bucket>>(arity);
+			for (int i=0; i<arity; i++)
+				arguments.add(new HashMap<Integer,Bucket>());
+		}
+	}
+
+	public static class Bucket {
+		//Facts of one predicate in the order they were added, with their positions
+		private Predicate[] facts=new Predicate[4];
+		private Atom[] atoms=new Atom[4];
+		private int[] positions=new int[4];
+		private int size;
+
+		void add(Predicate fact, Atom atom, int position) {
+			if (size==facts.length) {
+				facts=Arrays.copyOf(facts, size*2);
+				atoms=Arrays.copyOf(atoms, size*2);
+				positions=Arrays.copyOf(positions, size*2);
+			}
+			facts[size]=fact;
+			atoms[size]=atom;
+			positions[size++]=position;
+		}
+		public int size() {
+			return size;
+		}
+		public Predicate get(int i) {
+			return facts[i];
+		}
+		public Atom atom(int i) {
+			return atoms[i];
+		}
+		public int position(int i) {
+			return positions[i];
+		}
+		public int first(int position) {
+			//The index of the first fact at or after position
+			int lo=0, hi=size;
+			while (lo<hi) {
+				int mid=(lo+hi)>>>1;
+				if (positions[mid]<position)
+					lo=mid+1;
+				else
+					hi=mid;
+			}
+			return lo;
+		}
+	}
+}
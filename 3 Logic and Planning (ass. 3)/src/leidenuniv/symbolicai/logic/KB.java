@@ -1,42 +1,46 @@
 package leidenuniv.symbolicai.logic;
 
 import java.io.File;
-import java.io.RandomAccessFile;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.Vector;
 
-public class KB {
+public class KB implements Iterable<Sentence> {
 	private Vector<Sentence> rules;
-	private HashMap<String,Sentence> hash;
+	private HashMap<Clause,Sentence> hash;
+	private long fingerprint;//the XOR of the fingerprints of the clauses of all sentences
+	private int changes;//how often a sentence was added or deleted, for the views on this KB (KBUnion)
 	
 	public KB() {
 		//create an empty KB
+		storage();
+	}
+	protected KB(boolean storage) {
+		//For subclasses that keep their sentences themselves: with storage false, the Vector and HashMap are not made,
+		//so the subclass overrides every method that uses them (or calls storage() first)
+		if (storage)
+			storage();
+	}
+	void storage() {
 		rules=new Vector<Sentence>();
-		hash=new HashMap<String,Sentence>();
+		hash=new HashMap<Clause,Sentence>();
 	}
 	
 	public KB(File file) {
 		//Reads a KB from a file
 		rules=new Vector<Sentence>();
-		hash=new HashMap<String,Sentence>();
+		hash=new HashMap<Clause,Sentence>();
 		try {
-			RandomAccessFile r=new RandomAccessFile(file, "r");
 			System.out.println("Reading KB from "+file);
-			String line=r.readLine();
-			while (line!=null) {
-				line=line.trim();
-				if (!line.startsWith("#") && line.length()>0) {
-					//only parse non-empty, non-comment lines
-					Sentence temp=new Sentence(line);
-					add(temp);
-					System.out.println("Read sentence: "+temp);
-					
-				}
-				line=r.readLine();
-			}
-			
+			int read=load(file);
+			System.out.println("Read "+read+" sentences.");
 		} catch (Exception e) {
 			System.out.println("Error reading KB "+file);
 			e.printStackTrace();
@@ -44,26 +48,53 @@ public class KB {
 		}
 		System.out.println("Ready reading KB.");
 	}
+	public int load(File file) throws IOException {
+		//Adds all sentences of a file (one per line, # for comments) to this KB, returns how many were read.
+		//Bytes are read as characters, like RandomAccessFile.readLine did
+		Reader in=new InputStreamReader(new FileInputStream(file), StandardCharsets.ISO_8859_1);
+		try {
+			return load(in);
+		} finally {
+			in.close();
+		}
+	}
+	public int load(Reader in) throws IOException {
+		//The same for any stream of sentences
+		return new SfolReader(in).readAll(this);
+	}
+	public void addAll(Collection<Sentence> sentences) {
+		//Adds many sentences at once, with room for all of them made up front
+		if (rules!=null)
+			rules.ensureCapacity(rules.size()+sentences.size());
+		for (Sentence s: sentences)
+			add(s);
+	}
 	public KB(Collection<Predicate> preds) {
 		rules=new Vector<Sentence>();
-		hash=new HashMap<String,Sentence>();
+		hash=new HashMap<Clause,Sentence>();
 		for (Predicate p: preds) {
-			add(new Sentence(p.toString()));
+			add(new Sentence(new Predicate(p)));
 		}
 	}
 	public void add(Sentence r) {
 		//Adds a sentence to the KB, if it is not already present (the HashMap is just there do to this fast, you coudl also look it up in the Vector rules).
 		//Present means: Stringwise equal, i.e., if r unifies with KB without the need for any substitution, it is not added again 
-		if (hash.containsKey(r.toString()))
+		//Stringwise equal sentences have the same Clause, so we look them up by that instead of building strings
+		Clause c=r.clause();
+		if (hash.containsKey(c))
 			return;
 		rules.add(r);
-		hash.put(r.toString(), r);
+		hash.put(c, r);
+		fingerprint^=c.fingerprint();
+		changes++;
 	}
 	public void del(Sentence r) {
-		Sentence d=hash.remove(r.toString());
-		if (d!=null)
+		Sentence d=hash.remove(r.clause());
+		if (d!=null) {
 			rules.remove(d);
-		
+			fingerprint^=d.clause().fingerprint();
+			changes++;
+		}
 	}
 	public Vector<Sentence> rules(){
 		return rules;
@@ -71,24 +102,48 @@ public class KB {
 	public Sentence get(int i) {
 		return rules.get(i);
 	}
+	public int size() {
+		return rules.size();
+	}
 	public boolean contains(Predicate p) {
 		//returns true if the exact predicate is in the knowledge base
-		return hash.containsKey(p.toString());
+		Clause c=Clause.lookup(p);
+		return c!=null && hash.containsKey(c);
 	}
 	public boolean contains(Sentence s) {
 		//returns true if the exact sentence is in the knowledge base
-		return hash.containsKey(s.toString());
+		return hash.containsKey(s.clause());
+	}
+	public long fingerprint() {
+		//A hash of the sentences that does not depend on their order: KBs with the same sentences have the same
+		//fingerprint, however they were added. It is kept up to date by add and del, so this costs nothing.
+		return fingerprint;
+	}
+	int changes() {
+		return changes;
+	}
+	void changed() {
+		//For subclasses that keep their sentences themselves
+		changes++;
+	}
+	public KB copy() {
+		//A new KB with the same sentences (refs, like union)
+		KB copy=new KB();
+		for (Sentence s: this)
+			copy.add(s);
+		return copy;
+	}
+	public Iterator<Sentence> iterator() {
+		//The sentences in the order they were added, the same as rules().iterator()
+		return rules.iterator();
 	}
 	public KB union(KB kb1) {
-		//Returns the union of this KB and kb1 as a new KB (containing refs(!) to the sentences in the two originals).
-		//Refs means that whatever you do to the result set will not affect kb1 or rules, however, anything you do to the members of result
-		//set will affect that member in other sets.
-		KB union=new KB();
-		for (Sentence s: rules)
-			union.add(s);
-		for (Sentence s: kb1.rules)
-			union.add(s);
-		return union;
+		//Returns the union of this KB and kb1 as a view on both, nothing is copied: it holds the sentences of this KB,
+		//followed by those of kb1 that are not in this KB, the same order as adding them all to a new KB.
+		//It is a view, so sentences added to or deleted from this KB or kb1 later show up in it as well.
+		//Adding to or deleting from the union itself first copies its sentences: this KB and kb1 don't change, and
+		//from then on the union is a KB of its own, which no longer follows them.
+		return new KBUnion(this, kb1);
 	}
 	
 	public String toString() {
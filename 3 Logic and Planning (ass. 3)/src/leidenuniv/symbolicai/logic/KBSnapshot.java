@@ -0,0 +1,256 @@
+package leidenuniv.symbolicai.logic;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Vector;
+import java.util.zip.CRC32;
+
+public class KBSnapshot {
+	//Saves a KB as a binary snapshot, and opens it again through a memory mapped file without parsing anything.
+	//Opening only checks the header (and the checksum, if asked): a sentence is decoded when it is first used, and the
+	//whole KB when a method needs all of it (rules(), contains, add, ...). get(i) and size() don't.
+	//
+	//Format (big endian), all offsets relative to the start of the body, so a snapshot is at most 2GB:
+	//header:    int MAGIC, int VERSION, int symbols, int sentences, long body length, long CRC32 of the body
+	//body:      int[symbols] symbol offsets, int[sentences] sentence offsets,
+	//           per symbol: its length, its characters as bytes (sfol is ASCII),
+	//           per sentence: conditions, conclusions, per predicate: operator (see Atom.OPERATORS), name, arity, terms
+	//The numbers in symbols and sentences are varints (7 bits per byte, the high bit set on all but the last byte).
+	//Names and terms are numbers in the snapshot's own symbol table, which are mapped to Symbols when they are used;
+	//symbols are numbered in order of first use, so the common ones get the short numbers.
+	public static final int MAGIC=0x53464f4c;//SFOL
+	public static final int VERSION=1;
+	private static final int HEADER=32;
+
+	public static void save(KB kb, File file) throws IOException {
+		HashMap<Integer,Integer> local=new HashMap<Integer,Integer>();//Symbols number -> snapshot number
+		Vector<String> symbols=new Vector<String>();
+		ByteArrayOutputStream sentenceBytes=new ByteArrayOutputStream();
+		DataOutputStream sentences=new DataOutputStream(sentenceBytes);
+		int[] sentenceOffsets=new int[kb.size()];
+		for (int i=0; i<kb.size(); i++) {
+			Sentence s=kb.get(i);
+			sentenceOffsets[i]=sentences.size();
+			writeVarint(sentences, s.conditions.size());
+			writeVarint(sentences, s.conclusions.size());
+			for (Predicate p: s.conditions)
+				write(sentences, p, local, symbols);
+			for (Predicate p: s.conclusions)
+				write(sentences, p, local, symbols);
+		}
+		ByteArrayOutputStream symbolBytes=new ByteArrayOutputStream();
+		DataOutputStream symbolData=new DataOutputStream(symbolBytes);
+		int[] symbolOffsets=new int[symbols.size()];
+		int start=4*(symbols.size()+sentenceOffsets.length);//the offset tables come first
+		for (int i=0; i<symbols.size(); i++) {
+			symbolOffsets[i]=start+symbolData.size();
+			writeVarint(symbolData, symbols.get(i).length());
+			symbolData.writeBytes(symbols.get(i));
+		}
+		start+=symbolData.size();
+		if ((long)start+sentences.size()>Integer.MAX_VALUE)
+			throw new IOException("KB too large for a snapshot");
+
+		ByteArrayOutputStream tableBytes=new ByteArrayOutputStream();
+		DataOutputStream tables=new DataOutputStream(tableBytes);
+		for (int offset: symbolOffsets)
+			tables.writeInt(offset);
+		for (int offset: sentenceOffsets)
+			tables.writeInt(start+offset);
+
+		CRC32 crc=new CRC32();
+		crc.update(tableBytes.toByteArray());
+		crc.update(symbolBytes.toByteArray());
+		crc.update(sentenceBytes.toByteArray());
+		DataOutputStream out=new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1<<16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(symbols.size());
+			out.writeInt(sentenceOffsets.length);
+			out.writeLong((long)start+sentences.size());
+			out.writeLong(crc.getValue());
+			tableBytes.writeTo(out);
+			symbolBytes.writeTo(out);
+			sentenceBytes.writeTo(out);
+		} finally {
+			out.close();
+		}
+	}
+	private static void write(DataOutputStream out, Predicate p, HashMap<Integer,Integer> local, Vector<String> symbols)
+			throws IOException {
+		writeVarint(out, Atom.operator(p));
+		writeVarint(out, local(p.nameSymbol(), local, symbols));
+		writeVarint(out, p.terms.size());
+		for (Term t: p.terms)
+			writeVarint(out, local(t.symbol(), local, symbols));
+	}
+	private static void writeVarint(DataOutputStream out, int value) throws IOException {
+		while ((value&~0x7f)!=0) {
+			out.writeByte(0x80|(value&0x7f));
+			value>>>=7;
+		}
+		out.writeByte(value);
+	}
+	private static int local(int symbol, HashMap<Integer,Integer> local, Vector<String> symbols) {
+		Integer id=local.get(symbol);
+		if (id==null) {
+			id=symbols.size();
+			symbols.add(Symbols.string(symbol));
+			local.put(symbol, id);
+		}
+		return id;
+	}
+
+	public static KB open(File file) throws IOException {
+		//Opens a snapshot and verifies its checksum (which reads the whole file once, but parses nothing)
+		return open(file, true);
+	}
+	public static KB open(File file, boolean verify) throws IOException {
+		RandomAccessFile r=new RandomAccessFile(file, "r");
+		MappedByteBuffer buffer;
+		try {
+			buffer=r.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, r.length());
+		} finally {
+			r.close();//the mapping stays valid
+		}
+		if (buffer.capacity()<HEADER || buffer.getInt(0)!=MAGIC)
+			throw new IOException("Not a KB snapshot: "+file);
+		if (buffer.getInt(4)!=VERSION)
+			throw new IOException("KB snapshot version "+buffer.getInt(4)+" is not supported (only "+VERSION+"): "+file);
+		long length=buffer.getLong(16);
+		if (buffer.capacity()!=HEADER+length)
+			throw new IOException("KB snapshot is truncated: "+file);
+		buffer.position(HEADER);
+		ByteBuffer body=buffer.slice();
+		if (verify) {
+			CRC32 crc=new CRC32();
+			crc.update(body.duplicate());
+			if (crc.getValue()!=buffer.getLong(24))
+				throw new IOException("KB snapshot checksum does not match: "+file);
+		}
+		return new MappedKB(body, buffer.getInt(8), buffer.getInt(12));
+	}
+
+	private static class MappedKB extends KB {
+		//A KB that decodes its sentences from a snapshot when they are used
+		private ByteBuffer body;
+		private int[] symbols;//snapshot number -> Symbols number+1, 0 if not looked up yet
+		private Sentence[] sentences;//the sentences decoded so far
+		private boolean decoded;//true once all sentences are in the KB itself, after that it is a normal KB
+		private int at;//where varint() reads
+
+		MappedKB(ByteBuffer body, int symbols, int sentences) {
+			this.body=body;
+			this.symbols=new int[symbols];
+			this.sentences=new Sentence[sentences];
+		}
+		private int symbol(int local) {
+			if (symbols[local]==0) {
+				int saved=at;
+				at=body.getInt(4*local);
+				int length=varint();
+				char[] chars=new char[length];
+				for (int i=0; i<length; i++)
+					chars[i]=(char)(body.get(at+i)&0xff);
+				symbols[local]=Symbols.intern(chars, 0, length)+1;
+				at=saved;
+			}
+			return symbols[local]-1;
+		}
+		private int varint() {
+			int value=0;
+			for (int shift=0; ; shift+=7) {
+				byte b=body.get(at++);
+				value|=(b&0x7f)<<shift;
+				if (b>=0)
+					return value;
+			}
+		}
+		private Sentence sentence(int i) {
+			if (sentences[i]==null) {
+				at=body.getInt(4*(symbols.length+i));
+				int conditions=varint(), conclusions=varint();
+				Vector<Predicate> left=new Vector<Predicate>(conditions), right=new Vector<Predicate>(conclusions);
+				for (int j=0; j<conditions+conclusions; j++) {
+					int operator=varint(), name=symbol(varint()), arity=varint();
+					Predicate p=new Predicate(operator, name, arity);
+					for (int k=0; k<arity; k++)
+						p.terms.add(new Term(symbol(varint())));
+					(j<conditions?left:right).add(p);
+				}
+				sentences[i]=new Sentence(left, right);
+			}
+			return sentences[i];
+		}
+		private void decode() {
+			if (decoded)
+				return;
+			decoded=true;
+			for (int i=0; i<sentences.length; i++)
+				super.add(sentence(i));
+			body=null;
+			sentences=null;
+			symbols=null;
+		}
+
+		@Override
+		public Sentence get(int i) {
+			return decoded?super.get(i):sentence(i);
+		}
+		@Override
+		public int size() {
+			return decoded?super.size():sentences.length;
+		}
+		@Override
+		public Vector<Sentence> rules() {
+			decode();
+			return super.rules();
+		}
+		@Override
+		public void add(Sentence r) {
+			decode();
+			super.add(r);
+		}
+		@Override
+		public void del(Sentence r) {
+			decode();
+			super.del(r);
+		}
+		@Override
+		public boolean contains(Predicate p) {
+			decode();
+			return super.contains(p);
+		}
+		@Override
+		public boolean contains(Sentence s) {
+			decode();
+			return super.contains(s);
+		}
+		@Override
+		public long fingerprint() {
+			decode();
+			return super.fingerprint();
+		}
+		@Override
+		public Iterator<Sentence> iterator() {
+			decode();
+			return super.iterator();
+		}
+		@Override
+		public String toString() {
+			decode();
+			return super.toString();
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package leidenuniv.symbolicai.logic;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Vector;
+
+class KBUnion extends KB {
+	//The view that KB.union returns: a list of layers (KBs), of which it holds the sentences of the first layer,
+	//then those of the second layer that are not in the first, and so on. Nothing is copied, a sentence is skipped
+	//if an earlier layer contains it, which is one hash lookup per earlier layer.
+	//A union of a union adds a layer instead of nesting views.
+	//Iterating is what forward chaining does and needs nothing else. rules(), get(i) and size() use the sentences listed
+	//once in a Vector, which is listed again only when a layer changed since (KB.changes).
+	//The first add or del copies the sentences into the KB itself (copy on write): from then on it is a KB like any other,
+	//and the layers are not used anymore.
+	private KB[] layers;//null once the sentences are copied
+	private Vector<Sentence> sentences;//null until it is needed
+	private int[] changes;//per layer its changes when sentences was listed
+
+	KBUnion(KB first, KB second) {
+		super(false);
+		Vector<KB> all=new Vector<KB>();
+		for (KB kb: new KB[] {first, second}) {
+			if (kb instanceof KBUnion && ((KBUnion)kb).layers!=null) {
+				for (KB layer: ((KBUnion)kb).layers)
+					all.add(layer);
+			} else
+				all.add(kb);
+		}
+		layers=all.toArray(new KB[0]);
+		changes=new int[layers.length];
+	}
+	private boolean inEarlierLayer(Sentence s, int layer) {
+		for (int i=0; i<layer; i++) {
+			if (layers[i].contains(s))
+				return true;
+		}
+		return false;
+	}
+
+	private void copyOnWrite() {
+		//Copies the sentences into the KB, so they can be changed without changing the layers
+		if (layers==null)
+			return;
+		Vector<Sentence> all=sentences();
+		layers=null;
+		sentences=null;
+		changes=null;
+		storage();
+		super.addAll(all);
+	}
+
+	@Override
+	public Iterator<Sentence> iterator() {
+		if (layers==null)
+			return super.iterator();
+		return new Iterator<Sentence>() {
+			private int layer=0;
+			private Iterator<Sentence> current=layers[0].iterator();
+			private Sentence next=advance();
+
+			private Sentence advance() {
+				while (true) {
+					while (!current.hasNext()) {
+						if (++layer==layers.length)
+							return null;
+						current=layers[layer].iterator();
+					}
+					Sentence s=current.next();
+					if (!inEarlierLayer(s, layer))
+						return s;
+				}
+			}
+			public boolean hasNext() {
+				return next!=null;
+			}
+			public Sentence next() {
+				if (next==null)
+					throw new NoSuchElementException();
+				Sentence result=next;
+				next=advance();
+				return result;
+			}
+		};
+	}
+	private Vector<Sentence> sentences() {
+		boolean changed=sentences==null;
+		for (int layer=0; layer<layers.length; layer++) {
+			if (changes[layer]!=layers[layer].changes()) {
+				changes[layer]=layers[layer].changes();
+				changed=true;
+			}
+		}
+		if (changed) {
+			sentences=new Vector<Sentence>();
+			for (Sentence s: this)
+				sentences.add(s);
+		}
+		return sentences;
+	}
+	@Override
+	public Vector<Sentence> rules() {
+		//All sentences, kept until a layer changes; like KB.rules() it is not a copy, so it should not be changed
+		return layers==null?super.rules():sentences();
+	}
+	@Override
+	public Sentence get(int i) {
+		return layers==null?super.get(i):sentences().get(i);
+	}
+	@Override
+	public int size() {
+		return layers==null?super.size():sentences().size();
+	}
+	@Override
+	public long fingerprint() {
+		//The fingerprints of the layers, without the sentences that are in more than one: one hash lookup per earlier
+		//layer for every sentence after the first layer
+		if (layers==null)
+			return super.fingerprint();
+		long result=layers[0].fingerprint();
+		for (int layer=1; layer<layers.length; layer++) {
+			result^=layers[layer].fingerprint();
+			for (Sentence s: layers[layer]) {
+				if (inEarlierLayer(s, layer))
+					result^=s.clause().fingerprint();
+			}
+		}
+		return result;
+	}
+	@Override
+	public boolean contains(Predicate p) {
+		if (layers==null)
+			return super.contains(p);
+		for (KB layer: layers) {
+			if (layer.contains(p))
+				return true;
+		}
+		return false;
+	}
+	@Override
+	public boolean contains(Sentence s) {
+		if (layers==null)
+			return super.contains(s);
+		for (KB layer: layers) {
+			if (layer.contains(s))
+				return true;
+		}
+		return false;
+	}
+	@Override
+	public void add(Sentence r) {
+		copyOnWrite();
+		super.add(r);
+	}
+	@Override
+	public void addAll(Collection<Sentence> sentences) {
+		copyOnWrite();
+		super.addAll(sentences);
+	}
+	@Override
+	public void del(Sentence r) {
+		copyOnWrite();
+		super.del(r);
+	}
+	@Override
+	public String toString() {
+		String result="";
+		for (Sentence s: this)
+			result+=s+"\n";
+		return result;
+	}
+}
@@ -0,0 +1,353 @@
+package leidenuniv.symbolicai.logic;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Vector;
+
+public class PersistentKB extends KB {
+	//A KB whose versions share their structure, for search states: copy() is O(1), and add and del on the copy are
+	//O(log n) and don't change the original. The sentences are kept in two persistent tries (every change copies only
+	//the path from the root to what changed, 32 children per node):
+	// - order: the sentences by the position they were added at, a deleted sentence leaves a null behind
+	// - index: a hash array mapped trie from the Clause of every sentence to its position, for contains and del
+	//Iteration is in the order the sentences were added, like KB. When more than half of the positions are deleted
+	//ones, the tries are rebuilt without them. Every node of order counts the sentences below it, so get(i) finds the
+	//i-th sentence in O(log n) even when positions before it were deleted.
+	private Node order;//positions 0..slots-1
+	private int depth;//the levels of order below its root, times 5
+	private int slots;
+	private Hash index;
+	private int size;
+	private long fingerprint;//as in KB
+	private Vector<Sentence> sentences;//null until rules() is called after a change, shared by copies
+
+	public PersistentKB() {
+		super(false);
+		order=new Node();
+	}
+	public PersistentKB(KB kb) {
+		this();
+		for (Sentence s: kb)
+			add(s);
+	}
+
+	@Override
+	public PersistentKB copy() {
+		//The same KB, without copying anything
+		PersistentKB copy=new PersistentKB();
+		copy.order=order;
+		copy.depth=depth;
+		copy.slots=slots;
+		copy.index=index;
+		copy.size=size;
+		copy.fingerprint=fingerprint;
+		copy.sentences=sentences;
+		return copy;
+	}
+	public PersistentKB with(Sentence s) {
+		//A new version with s added
+		PersistentKB result=copy();
+		result.add(s);
+		return result;
+	}
+	public PersistentKB without(Sentence s) {
+		//A new version without s
+		PersistentKB result=copy();
+		result.del(s);
+		return result;
+	}
+
+	@Override
+	public void add(Sentence r) {
+		Clause c=r.clause();
+		if (Hash.get(index, c, c.hashCode(), 0)>=0)
+			return;
+		if (slots==32<<depth) {//the root is full: it becomes the first child of a new root
+			Node root=new Node();
+			root.children[0]=order;
+			root.count=order.count;
+			order=root;
+			depth+=5;
+		}
+		order=Node.set(order, depth, slots, r);
+		index=Hash.put(index, c, c.hashCode(), 0, slots);
+		slots++;
+		size++;
+		fingerprint^=c.fingerprint();
+		sentences=null;
+		changed();
+	}
+	@Override
+	public void del(Sentence r) {
+		Clause c=r.clause();
+		int position=Hash.get(index, c, c.hashCode(), 0);
+		if (position<0)
+			return;
+		order=Node.set(order, depth, position, null);
+		index=Hash.remove(index, c, c.hashCode(), 0);
+		size--;
+		fingerprint^=c.fingerprint();
+		sentences=null;
+		changed();
+		if (slots>64 && size<slots/2)
+			compact();
+	}
+	private void compact() {
+		//rebuilds the tries without the deleted positions
+		PersistentKB fresh=new PersistentKB(this);
+		order=fresh.order;
+		depth=fresh.depth;
+		slots=fresh.slots;
+		index=fresh.index;
+	}
+	@Override
+	public boolean contains(Predicate p) {
+		Clause c=Clause.lookup(p);
+		return c!=null && Hash.get(index, c, c.hashCode(), 0)>=0;
+	}
+	@Override
+	public boolean contains(Sentence s) {
+		Clause c=s.clause();
+		return Hash.get(index, c, c.hashCode(), 0)>=0;
+	}
+	@Override
+	public int size() {
+		return size;
+	}
+	@Override
+	public long fingerprint() {
+		return fingerprint;
+	}
+	@Override
+	public Sentence get(int i) {
+		if (i<0 || i>=size)
+			throw new ArrayIndexOutOfBoundsException("Array index out of range: "+i);
+		if (size==slots)//nothing deleted, position i is sentence i
+			return Node.get(order, depth, i);
+		return Node.nth(order, depth, i);
+	}
+	@Override
+	public Vector<Sentence> rules() {
+		//All sentences, listed once until the next add or del; like KB.rules() it is not a copy, so it should not be changed
+		if (sentences==null) {
+			sentences=new Vector<Sentence>(size);
+			for (Sentence s: this)
+				sentences.add(s);
+		}
+		return sentences;
+	}
+	@Override
+	public Iterator<Sentence> iterator() {
+		final Node root=order;
+		final int rootDepth=depth, end=slots;
+		return new Iterator<Sentence>() {
+			private int position=-1;
+			private Object[] leaf;
+			private Sentence next=advance();
+
+			private Sentence advance() {
+				while (++position<end) {
+					if ((position&31)==0)
+						leaf=Node.leaf(root, rootDepth, position);
+					if (leaf[position&31]!=null)
+						return (Sentence)leaf[position&31];
+				}
+				return null;
+			}
+			public boolean hasNext() {
+				return next!=null;
+			}
+			public Sentence next() {
+				if (next==null)
+					throw new NoSuchElementException();
+				Sentence result=next;
+				next=advance();
+				return result;
+			}
+		};
+	}
+	@Override
+	public String toString() {
+		String result="";
+		for (Sentence s: this)
+			result+=s+"\n";
+		return result;
+	}
+
+	private static class Node {
+		//A node of order: 32 children, which are Nodes, or Sentences in the leaves
+		final Object[] children=new Object[32];
+		int count;//the sentences below this node, set before the node is shared
+
+		static Object[] leaf(Node root, int depth, int position) {
+			Node n=root;
+			for (int shift=depth; shift>0; shift-=5)
+				n=(Node)n.children[(position>>>shift)&31];
+			return n.children;
+		}
+		static Sentence get(Node root, int depth, int position) {
+			return (Sentence)leaf(root, depth, position)[position&31];
+		}
+		static Sentence nth(Node n, int shift, int i) {
+			//The i-th sentence below n (i<n.count), skipping the deleted positions
+			for (; shift>0; shift-=5) {
+				for (Object child: n.children) {
+					int count=child==null?0:((Node)child).count;
+					if (i<count) {
+						n=(Node)child;
+						break;
+					}
+					i-=count;
+				}
+			}
+			for (Object child: n.children) {
+				if (child!=null && i--==0)
+					return (Sentence)child;
+			}
+			throw new IllegalStateException("count of a node is wrong");
+		}
+		static Node set(Node n, int shift, int position, Sentence s) {
+			//A copy of n (or a new node if n is null) with the path to position copied and s at position
+			Node copy=new Node();
+			if (n!=null) {
+				System.arraycopy(n.children, 0, copy.children, 0, 32);
+				copy.count=n.count;
+			}
+			int i=(position>>>shift)&31;
+			Object old=copy.children[i];
+			if (shift==0) {
+				copy.children[i]=s;
+				copy.count+=(s==null?0:1)-(old==null?0:1);
+			} else {
+				Node child=set((Node)old, shift-5, position, s);
+				copy.children[i]=child;
+				copy.count+=child.count-(old==null?0:((Node)old).count);
+			}
+			return copy;
+		}
+	}
+
+	private static class Hash {
+		//A node of index: per bit set in bitmap (5 bits of the hash per level) a key and its position, or a child node
+		//in children. Keys with the same 32 bit hash end up in a collision node, that has no bitmap and lists them all.
+		final int bitmap;
+		final Clause[] keys;//null where the entry is a child
+		final int[] positions;
+		final Hash[] children;
+		final boolean collision;
+
+		Hash(int bitmap, Clause[] keys, int[] positions, Hash[] children, boolean collision) {
+			this.bitmap=bitmap;
+			this.keys=keys;
+			this.positions=positions;
+			this.children=children;
+			this.collision=collision;
+		}
+
+		static int get(Hash n, Clause key, int hash, int shift) {
+			//The position of key, or -1
+			while (n!=null) {
+				if (n.collision) {
+					for (int i=0; i<n.keys.length; i++) {
+						if (n.keys[i].equals(key))
+							return n.positions[i];
+					}
+					return -1;
+				}
+				int bit=1<<((hash>>>shift)&31);
+				if ((n.bitmap&bit)==0)
+					return -1;
+				int i=Integer.bitCount(n.bitmap&(bit-1));
+				if (n.keys[i]==null) {
+					n=n.children[i];
+					shift+=5;
+				} else
+					return n.keys[i].equals(key)?n.positions[i]:-1;
+			}
+			return -1;
+		}
+		static Hash put(Hash n, Clause key, int hash, int shift, int position) {
+			//A copy of n with key at position (key is not in n yet)
+			if (n==null)
+				return new Hash(1<<((hash>>>shift)&31), new Clause[] {key}, new int[] {position}, new Hash[1], false);
+			if (n.collision)
+				return n.insert(n.keys.length, 0, key, position, null);
+			int bit=1<<((hash>>>shift)&31);
+			int i=Integer.bitCount(n.bitmap&(bit-1));
+			if ((n.bitmap&bit)==0)
+				return n.insert(i, bit, key, position, null);
+			Hash copy=n.copy();
+			if (n.keys[i]==null)
+				copy.children[i]=put(n.children[i], key, hash, shift+5, position);
+			else {//two keys in one place: they move to a new child
+				copy.children[i]=pair(n.keys[i], n.keys[i].hashCode(), n.positions[i], key, hash, position, shift+5);
+				copy.keys[i]=null;
+			}
+			return copy;
+		}
+		static Hash pair(Clause k1, int h1, int p1, Clause k2, int h2, int p2, int shift) {
+			if (shift>30)//no hash bits left
+				return new Hash(0, new Clause[] {k1, k2}, new int[] {p1, p2}, new Hash[2], true);
+			int b1=(h1>>>shift)&31, b2=(h2>>>shift)&31;
+			if (b1==b2)
+				return new Hash(1<<b1, new Clause[1], new int[1], new Hash[] {pair(k1, h1, p1, k2, h2, p2, shift+5)}, false);
+			if (b1>b2)
+				return pair(k2, h2, p2, k1, h1, p1, shift);
+			return new Hash((1<<b1)|(1<<b2), new Clause[] {k1, k2}, new int[] {p1, p2}, new Hash[2], false);
+		}
+		static Hash remove(Hash n, Clause key, int hash, int shift) {
+			//A copy of n without key (which is in n), or null if nothing is left
+			if (n.collision) {
+				for (int i=0; i<n.keys.length; i++) {
+					if (n.keys[i].equals(key))
+						return n.keys.length==1?null:n.delete(i, 0);
+				}
+				return n;
+			}
+			int bit=1<<((hash>>>shift)&31);
+			int i=Integer.bitCount(n.bitmap&(bit-1));
+			if (n.keys[i]==null) {
+				Hash child=remove(n.children[i], key, hash, shift+5);
+				if (child!=null) {
+					Hash copy=n.copy();
+					copy.children[i]=child;
+					return copy;
+				}
+			}
+			return n.bitmap==bit?null:n.delete(i, bit);
+		}
+
+		Hash copy() {
+			return new Hash(bitmap, keys.clone(), positions.clone(), children.clone(), collision);
+		}
+		Hash insert(int i, int bit, Clause key, int position, Hash child) {
+			int n=keys.length;
+			Clause[] k=new Clause[n+1];
+			int[] p=new int[n+1];
+			Hash[] c=new Hash[n+1];
+			System.arraycopy(keys, 0, k, 0, i);
+			System.arraycopy(positions, 0, p, 0, i);
+			System.arraycopy(children, 0, c, 0, i);
+			k[i]=key;
+			p[i]=position;
+			c[i]=child;
+			System.arraycopy(keys, i, k, i+1, n-i);
+			System.arraycopy(positions, i, p, i+1, n-i);
+			System.arraycopy(children, i, c, i+1, n-i);
+			return new Hash(bitmap|bit, k, p, c, collision);
+		}
+		Hash delete(int i, int bit) {
+			int n=keys.length;
+			Clause[] k=new Clause[n-1];
+			int[] p=new int[n-1];
+			Hash[] c=new Hash[n-1];
+			System.arraycopy(keys, 0, k, 0, i);
+			System.arraycopy(positions, 0, p, 0, i);
+			System.arraycopy(children, 0, c, 0, i);
+			System.arraycopy(keys, i+1, k, i, n-i-1);
+			System.arraycopy(positions, i+1, p, i, n-i-1);
+			System.arraycopy(children, i+1, c, i, n-i-1);
+			return new Hash(bitmap&~bit, k, p, c, collision);
+		}
+	}
+}
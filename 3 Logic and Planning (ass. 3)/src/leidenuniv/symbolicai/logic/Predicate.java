@@ -7,6 +7,7 @@ import java.util.regex.Pattern;
 
 public class Predicate {
 	private String name;
+	private int nameSymbol=-1;
 	Vector<Term> terms;
 	public boolean not;//means the predicate is the not equal operator
 	public boolean eql;//means the predicate is the equal operator
@@ -16,6 +17,8 @@ public class Predicate {
 	public boolean adopt;//means this predicate is a goal addition operator
 	public boolean drop;//means this predicate is a goal deletion operator
 	public boolean neg;//means this predicate is a negated predicate.
+	private static final Pattern TERMS=Pattern.compile("\\(\\w*(,\\w*)*\\)");//this is the regular expression that looks for (term,term,...)
+	private static final Pattern NAME=Pattern.compile("([a-z]|[A-Z])+");
 	
 	public Predicate(Sentence s) {
 		//Attempts to create a single Predicate from a Sentence toString method.
@@ -27,14 +30,45 @@ public class Predicate {
 		terms=new Vector<Term>();
 		parse(sfol);
 	}
+	public Predicate(Predicate p) {
+		//A copy of p with copies of its terms, built from its parts instead of parsing p.toString() again
+		name=p.name;
+		nameSymbol=p.nameSymbol;
+		not=p.not;
+		eql=p.eql;
+		add=p.add;
+		del=p.del;
+		act=p.act;
+		adopt=p.adopt;
+		drop=p.drop;
+		neg=p.neg;
+		terms=new Vector<Term>(p.terms.size());
+		for (Term t: p.terms)
+			terms.add(new Term(t));
+	}
+	Predicate(int operator, int name, int arity) {
+		//A predicate without terms yet, the operator is an index in Atom.OPERATORS and the name a symbol
+		this.name=Symbols.string(name);
+		nameSymbol=name;
+		terms=new Vector<Term>(arity);
+		switch (Atom.OPERATORS[operator]) {
+		case "!": neg=true; break;
+		case "*": adopt=true; break;
+		case "~": drop=true; break;
+		case "_": act=true; break;
+		case "!=": not=true; break;
+		case "=": eql=true; break;
+		case "+": add=true; break;
+		case "-": del=true; break;
+		}
+	}
 	public void parse(String sfol) {
 		//Parse the string into the Predicate structure.
 		//No need to go through this unless you want to understand how parsing goes, or want to extend your predicate
 		try {
 			sfol=sfol.trim();
 			
-			Pattern p=Pattern.compile("\\(\\w*(,\\w*)*\\)");//this is the regular expression that looks for (term,term,...)
-			Matcher m=p.matcher(sfol);
+			Matcher m=TERMS.matcher(sfol);
 			if (m.find()) {
 				//if we have terms, we assume pred(term,term2,...) format
 				//First parse the predicate itself (the name of the predicate)
@@ -84,7 +118,7 @@ public class Predicate {
 				this.name=pred.substring(1, pred.length());
 			} else
 				this.name=pred;
-			if (!this.name.matches("([a-z]|[A-Z])+"))
+			if (!NAME.matcher(this.name).matches())
 			{	System.out.println("Parse error: invalid predicate name syntax "+pred);
 				System.exit(0);
 			}
@@ -130,6 +164,12 @@ public class Predicate {
 	public String getName() {
 		return name;
 	}
+	public int nameSymbol() {
+		//The name as a number in the symbol table
+		if (nameSymbol<0)
+			nameSymbol=Symbols.intern(name);
+		return nameSymbol;
+	}
 	public String toString() {
 		//Returns a string representation for this predicate
 		//This is an important function as it is not only used for printing but also for generating copies of predicates
@@ -0,0 +1,149 @@
+package leidenuniv.symbolicai.logic;
+
+import java.util.HashMap;
+import java.util.Vector;
+
+public class RuleGraph {
+	//The predicate dependency graph of a KB, split into strata for forward chaining.
+	//A rule makes the predicates (name/arity, without operator) of its conclusions depend on those of its conditions,
+	//negatively for a negated condition (= and != don't count). The conclusions of one rule depend on each other, since
+	//they are derived together. Every strongly connected component of the graph is a stratum, and the strata are in
+	//dependency order: a stratum only reads predicates of its own and of earlier strata. So when a stratum runs to its
+	//fixpoint, every predicate it negates that is not its own is complete, and !p means that p is never derived.
+	//The facts of the KB (sentences without conditions) come first, in a stratum of their own.
+	//A stratum with a negation inside (like at(X)&!visited(X)>+visited(X)) cannot wait for itself: its negations see
+	//the facts derived so far, as they always did. stratified() tells whether there is such a stratum.
+	private int[][] strata;//per stratum the rules in it, in KB order
+	private HashMap<Long,int[]> readers=new HashMap<Long,int[]>();//name/arity -> the rules with a positive condition on it
+	private boolean stratified=true;
+
+	private HashMap<Long,Integer> nodes=new HashMap<Long,Integer>();//name/arity -> predicate number
+	private Vector<Vector<Integer>> successors=new Vector<Vector<Integer>>();
+	private int[] component, low, number;
+	private Vector<Integer> stack=new Vector<Integer>();
+	private int components, visited;
+
+	public RuleGraph(Vector<Sentence> rules) {
+		Vector<int[]> negative=new Vector<int[]>();//edges of negated conditions, condition -> conclusion
+		HashMap<Long,Vector<Integer>> reading=new HashMap<Long,Vector<Integer>>();
+		for (int r=0; r<rules.size(); r++) {
+			Sentence rule=rules.get(r);
+			for (Predicate conclusion: rule.conclusions) {
+				int to=node(conclusion);
+				for (Predicate condition: rule.conditions) {
+					if (condition.not || condition.eql)
+						continue;
+					int from=node(condition);
+					successors.get(from).add(to);
+					if (condition.neg)
+						negative.add(new int[] {from, to});
+				}
+				for (Predicate other: rule.conclusions) {
+					if (other!=conclusion)
+						successors.get(node(other)).add(to);
+				}
+			}
+			for (Predicate condition: rule.conditions) {
+				if (condition.not || condition.eql || condition.neg)
+					continue;
+				Long key=key(condition);
+				if (!reading.containsKey(key))
+					reading.put(key, new Vector<Integer>());
+				Vector<Integer> list=reading.get(key);
+				if (list.isEmpty() || list.lastElement()!=r)
+					list.add(r);
+			}
+		}
+		for (Long key: reading.keySet())
+			readers.put(key, toArray(reading.get(key)));
+
+		//Tarjan's algorithm numbers the components from 1, sinks first, so component c is stratum components+1-c,
+		//after the facts in stratum 0
+		int n=successors.size();
+		component=new int[n];
+		low=new int[n];
+		number=new int[n];
+		for (int v=0; v<n; v++) {
+			if (number[v]==0)
+				connect(v);
+		}
+		for (int[] edge: negative) {
+			if (component[edge[0]]==component[edge[1]])
+				stratified=false;
+		}
+
+		Vector<Vector<Integer>> inStratum=new Vector<Vector<Integer>>();
+		for (int s=0; s<=components; s++)
+			inStratum.add(new Vector<Integer>());
+		for (int r=0; r<rules.size(); r++) {
+			Sentence rule=rules.get(r);
+			int s=rule.conditions.isEmpty() || rule.conclusions.isEmpty()?0:components+1-component[node(rule.conclusions.get(0))];
+			inStratum.get(s).add(r);
+		}
+		Vector<int[]> result=new Vector<int[]>();
+		for (Vector<Integer> s: inStratum) {
+			if (!s.isEmpty())//the strata of predicates that no rule concludes
+				result.add(toArray(s));
+		}
+		strata=result.toArray(new int[0][]);
+		nodes=null;
+		successors=null;
+		component=low=number=null;
+		stack=null;
+	}
+	private void connect(int v) {
+		number[v]=low[v]=++visited;
+		stack.add(v);
+		for (int w: successors.get(v)) {
+			if (number[w]==0) {
+				connect(w);
+				low[v]=Math.min(low[v], low[w]);
+			} else if (component[w]==0)//still on the stack
+				low[v]=Math.min(low[v], number[w]);
+		}
+		if (low[v]==number[v]) {//v is the root of a component, which is on the stack from v up
+			int w;
+			do {
+				w=stack.remove(stack.size()-1);
+				component[w]=components+1;
+			} while (w!=v);
+			components++;
+		}
+	}
+	private int node(Predicate p) {
+		Long key=key(p);
+		Integer id=nodes.get(key);
+		if (id==null) {
+			id=nodes.size();
+			nodes.put(key, id);
+			successors.add(new Vector<Integer>());
+		}
+		return id;
+	}
+	private static Long key(Predicate p) {
+		return ((long)p.nameSymbol()<<32)|p.terms.size();
+	}
+	private static int[] toArray(Vector<Integer> list) {
+		int[] result=new int[list.size()];
+		for (int i=0; i<result.length; i++)
+			result[i]=list.get(i);
+		return result;
+	}
+
+	public int strata() {
+		return strata.length;
+	}
+	public int[] stratum(int s) {
+		//The rules of stratum s, in KB order
+		return strata[s];
+	}
+	public int[] readers(Predicate fact) {
+		//The rules with a positive condition that can match fact: they have to run again when it is derived
+		int[] result=readers.get(key(fact));
+		return result==null?new int[0]:result;
+	}
+	public boolean stratified() {
+		//true if no stratum has a negation inside, then !p is always checked against all facts of p
+		return stratified;
+	}
+}
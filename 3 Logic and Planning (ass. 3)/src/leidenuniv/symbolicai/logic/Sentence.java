@@ -13,6 +13,7 @@ public class Sentence {
 	//Conditions can NOT be action predicates (+-_)
 	public Vector<Predicate> conditions;
 	public Vector<Predicate> conclusions;
+	private Clause clause;
 
 	
 	public Sentence (String sent) {
@@ -20,6 +21,17 @@ public class Sentence {
 		conclusions=new Vector<Predicate>();
 		parse(sent);
 	}
+	public Sentence(Vector<Predicate> conditions, Vector<Predicate> conclusions) {
+		//A sentence from predicates that are already parsed; they become part of the sentence, so don't change them anymore
+		this.conditions=conditions;
+		this.conclusions=conclusions;
+	}
+	public Sentence(Predicate fact) {
+		//A fact (a sentence without conditions) from an already parsed predicate, the same as new Sentence(fact.toString())
+		conditions=new Vector<Predicate>();
+		conclusions=new Vector<Predicate>();
+		conclusions.add(fact);
+	}
 	public void parse(String sent) {
 		//A function that parses an sfol sentence
 		String [] lr=sent.split(">");
@@ -49,6 +61,13 @@ public class Sentence {
 			}
 		}
 	}
+	public Clause clause() {
+		//This sentence as a Clause (of hash-consed atoms), for fast lookups in a KB.
+		//It is made once, so a sentence should not be changed anymore after it has been added to a KB.
+		if (clause==null)
+			clause=Clause.of(this);
+		return clause;
+	}
 	public String toString() {
 		String result="";
 		if (conditions.size()>0) {
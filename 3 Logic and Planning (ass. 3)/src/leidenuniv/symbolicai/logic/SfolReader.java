@@ -0,0 +1,171 @@
+package leidenuniv.symbolicai.logic;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+import java.util.Vector;
+
+public class SfolReader {
+	//Reads sfol sentences, one per line, from a stream: the same language as new Sentence(line), but with a hand-written
+	//lexer on a buffer instead of split and regular expressions, so that files with millions of facts load in seconds.
+	//Empty lines and lines starting with # are skipped. Whitespace is allowed around predicates, not inside them.
+	//Names and terms go straight into the symbol table, so the sentences it makes share their Strings.
+	//Like Sentence, it prints a parse error and stops the program on a sentence it does not understand.
+	private Reader in;
+	private char[] buffer=new char[1<<16];
+	private int next, filled;//buffer[next..filled-1] is not read yet
+	private char[] line=new char[256];//the current line
+	private int pos, end;//line[pos..end-1] is not parsed yet
+	private Vector<Term> terms=new Vector<Term>();//the terms of the current predicate
+	private boolean done;
+
+	public SfolReader(Reader in) {
+		this.in=in;
+	}
+	public Sentence next() throws IOException {
+		//The next sentence, or null at the end of the stream
+		while (readLine()) {
+			while (end>pos && line[end-1]<=' ')
+				end--;
+			while (pos<end && line[pos]<=' ')
+				pos++;
+			if (pos<end && line[pos]!='#')
+				return sentence();
+		}
+		return null;
+	}
+	public int readAll(KB kb) throws IOException {
+		//Adds all sentences to kb, returns how many were read
+		int count=0;
+		for (Sentence s=next(); s!=null; s=next()) {
+			kb.add(s);
+			count++;
+		}
+		return count;
+	}
+
+	private boolean readLine() throws IOException {
+		//Reads the next line (without \n, \r or \r\n) into line[0..end-1]
+		if (done)
+			return false;
+		pos=end=0;
+		while (true) {
+			if (next==filled) {
+				filled=in.read(buffer);
+				next=0;
+				if (filled<=0) {
+					filled=0;
+					done=true;
+					return true;
+				}
+			}
+			char c=buffer[next++];
+			if (c=='\n')
+				return true;
+			if (c=='\r') {
+				if (next==filled) {
+					filled=Math.max(in.read(buffer), 0);
+					next=0;
+				}
+				if (next<filled && buffer[next]=='\n')
+					next++;
+				return true;
+			}
+			if (end==line.length)
+				line=Arrays.copyOf(line, end*2);
+			line[end++]=c;
+		}
+	}
+
+	private Sentence sentence() {
+		//sentence: predicates [> predicates]
+		Vector<Predicate> left=predicates();
+		if (pos==end)
+			return new Sentence(new Vector<Predicate>(0), left);
+		pos++;//the >
+		skipSpaces();
+		if (pos==end)//a>, which Sentence reads as the fact a
+			return new Sentence(new Vector<Predicate>(0), left);
+		Vector<Predicate> right=predicates();
+		if (pos<end)
+			error();
+		for (Predicate p: left) {
+			if (p.isAction()) {
+				System.out.println("Parse error: actions can not be conditions: "+new String(line, 0, end));
+				System.exit(0);
+			}
+		}
+		return new Sentence(left, right);
+	}
+	private Vector<Predicate> predicates() {
+		//predicates: predicate [& predicate]*, stops at > or the end of the line
+		Vector<Predicate> result=new Vector<Predicate>(1);
+		while (true) {
+			result.add(predicate());
+			skipSpaces();
+			if (pos<end && line[pos]=='&')
+				pos++;
+			else if (pos==end || line[pos]=='>')
+				return result;
+			else
+				error();
+		}
+	}
+	private Predicate predicate() {
+		//predicate: [operator] name [(term[,term]*)], or !=(term,term) and =(term,term)
+		skipSpaces();
+		int operator=0;
+		if (pos<end) {
+			switch (line[pos]) {
+			case '!': operator=pos+1<end && line[pos+1]=='='?5:1; break;
+			case '*': operator=2; break;
+			case '~': operator=3; break;
+			case '_': operator=4; break;
+			case '=': operator=6; break;
+			case '+': operator=7; break;
+			case '-': operator=8; break;
+			}
+		}
+		pos+=Atom.OPERATORS[operator].length();
+		int start=pos;
+		while (pos<end && (line[pos]>='a' && line[pos]<='z' || line[pos]>='A' && line[pos]<='Z'))
+			pos++;
+		boolean comparison=operator==5 || operator==6;
+		if (comparison!=(pos==start))//a comparison has no name, everything else does
+			error();
+		int name=Symbols.intern(line, start, pos-start);
+		terms.clear();
+		if (pos<end && line[pos]=='(') {
+			do {
+				pos++;
+				start=pos;
+				while (pos<end && isWordChar(line[pos]))
+					pos++;
+				terms.add(new Term(Symbols.intern(line, start, pos-start)));
+			} while (pos<end && line[pos]==',');
+			if (pos==end || line[pos]!=')')
+				error();
+			pos++;
+			if (terms.size()>1) {
+				//like String.split, which Predicate uses: p(a,) is p(a) and p(,) is p, but p() has one empty term
+				while (!terms.isEmpty() && terms.lastElement().term.isEmpty())
+					terms.remove(terms.size()-1);
+			}
+		}
+		Predicate p=new Predicate(operator, name, terms.size());
+		p.terms.addAll(terms);
+		return p;
+	}
+	private static boolean isWordChar(char c) {
+		//\w
+		return c>='a' && c<='z' || c>='A' && c<='Z' || c>='0' && c<='9' || c=='_';
+	}
+	private void skipSpaces() {
+		while (pos<end && line[pos]<=' ')
+			pos++;
+	}
+	private void error() {
+		System.out.println("Parse error: invalid sentence syntax "+new String(line, 0, end).trim());
+		System.exit(0);
+	}
+}
@@ -0,0 +1,91 @@
+package leidenuniv.symbolicai.logic;
+
+import java.util.Arrays;
+
+public class Symbols {
+	//The symbol table: every predicate name, constant and variable gets a number, so that predicates can be compared
+	//and hashed as ints instead of Strings. The same string always gets the same number, numbers are never reused.
+	//The table is open addressing on int arrays (no Integer or map entry per symbol), and a reader can look up the
+	//characters of a token directly, without making a String for symbols that already exist.
+	private static String[] strings=new String[1024];
+	private static int[] hashes=new int[1024];
+	private static boolean[] variables=new boolean[1024];
+	private static int[] table=new int[2048];//symbol+1 per slot, 0 for an empty slot
+	private static int shift=32-11;//table.length is 2^(32-shift)
+	private static int count;
+
+	public static synchronized int intern(String s) {
+		int h=s.hashCode();
+		int i=slot(h);
+		for (int id=table[i]-1; id>=0; id=table[i]-1) {
+			if (hashes[id]==h && strings[id].equals(s))
+				return id;
+			i=(i+1)&(table.length-1);
+		}
+		return add(s, h, i);
+	}
+	public static synchronized int intern(char[] chars, int start, int length) {
+		//The same as intern(new String(chars, start, length))
+		int h=0;
+		for (int j=start; j<start+length; j++)
+			h=31*h+chars[j];//String.hashCode
+		int i=slot(h);
+		for (int id=table[i]-1; id>=0; id=table[i]-1) {
+			if (hashes[id]==h && equals(strings[id], chars, start, length))
+				return id;
+			i=(i+1)&(table.length-1);
+		}
+		return add(new String(chars, start, length), h, i);
+	}
+	private static int slot(int h) {
+		//the hash of similar strings like p1 and p2 differs in the low bits only, the multiplication spreads it to the top
+		return (h*0x9E3779B1)>>>shift;
+	}
+	private static boolean equals(String s, char[] chars, int start, int length) {
+		if (s.length()!=length)
+			return false;
+		for (int j=0; j<length; j++) {
+			if (s.charAt(j)!=chars[start+j])
+				return false;
+		}
+		return true;
+	}
+	private static int add(String s, int h, int slot) {
+		//s is new, slot is the empty slot where the lookup ended
+		if (count==strings.length) {
+			strings=Arrays.copyOf(strings, count*2);
+			hashes=Arrays.copyOf(hashes, count*2);
+			variables=Arrays.copyOf(variables, count*2);
+		}
+		int id=count;
+		strings[id]=s;
+		hashes[id]=h;
+		variables[id]=Term.isVariable(s);
+		table[slot]=id+1;
+		count++;
+		if (count*2>table.length) {
+			int[] old=table;
+			table=new int[old.length*2];
+			shift--;
+			for (int entry: old) {
+				if (entry>0) {
+					int i=slot(hashes[entry-1]);
+					while (table[i]!=0)
+						i=(i+1)&(table.length-1);
+					table[i]=entry;
+				}
+			}
+		}
+		return id;
+	}
+	//Not synchronized: whoever has a symbol got it from intern, after the arrays were filled for it
+	public static String string(int id) {
+		return strings[id];
+	}
+	public static boolean isVariable(int id) {
+		return variables[id];
+	}
+	public static synchronized int size() {
+		return count;
+	}
+}
@@ -5,20 +5,43 @@ import java.util.HashMap;
 public class Term {
 	public String term;
 	public Boolean var;
+	private String interned;//the term that symbol belongs to, term can change by substitute
+	private int symbol;
 	
 	public Term(String term) {
 		//Takes a term as String and parses it.
 		parse(term);
 	}
+	public Term(Term t) {
+		//A copy of t, without parsing it again
+		term=t.term;
+		var=t.var;
+		interned=t.interned;
+		symbol=t.symbol;
+	}
+	Term(int symbol) {
+		//A term from the symbol table, which already knows if it is a variable
+		term=Symbols.string(symbol);
+		var=Symbols.isVariable(symbol);
+		interned=term;
+		this.symbol=symbol;
+	}
 	public void parse(String term) {
 		//Write a function that parses a term, words that start with a capital are variables, others are constant symbols
 		this.term=term;
 		
-		if (term.matches("[A-Z]\\w*")) 
-			var=true;
-		else
-			var=false;
-		
+		var=isVariable(term);
+	}
+	static boolean isVariable(String term) {
+		//term.matches("[A-Z]\\w*") without the regex
+		if (term.isEmpty() || term.charAt(0)<'A' || term.charAt(0)>'Z')
+			return false;
+		for (int i=1; i<term.length(); i++) {
+			char c=term.charAt(i);
+			if (!(c>='a' && c<='z' || c>='A' && c<='Z' || c>='0' && c<='9' || c=='_'))
+				return false;
+		}
+		return true;
 	}
 	public boolean substitute(HashMap<String, String> s) {
 		//If this term is a variable, and substitution s contains a key-value pair for this variable,
@@ -31,6 +54,15 @@ public class Term {
 		return false;
 	}
 	
+	public int symbol() {
+		//This term as a number in the symbol table
+		if (interned!=term) {
+			symbol=Symbols.intern(term);
+			interned=term;
+		}
+		return symbol;
+	}
+	
 	public String toString() {
 		return term;
 	}
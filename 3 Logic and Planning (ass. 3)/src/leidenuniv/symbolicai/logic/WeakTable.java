@@ -0,0 +1,94 @@
+package leidenuniv.symbolicai.logic;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+
+class WeakTable<T> {
+	//The hash-consing table of Atom: a hash set of weakly referenced objects, where an object that nobody
+	//else refers to anymore disappears. Unlike a WeakHashMap<T,WeakReference<T>> every entry is one weak reference
+	//(not two), which matters for the garbage collector when a KB holds millions of facts.
+	private Entry<T>[] table;
+	private int size;
+	private final ReferenceQueue<T> queue=new ReferenceQueue<T>();
+
+	private static class Entry<T> extends WeakReference<T> {
+		final int hash;
+		Entry<T> next;
+
+		Entry(T value, int hash, Entry<T> next, ReferenceQueue<T> queue) {
+			super(value, queue);
+			this.hash=hash;
+			this.next=next;
+		}
+	}
+
+	WeakTable() {
+		table=newTable(1024);
+	}
+	@SuppressWarnings({"unchecked", "rawtypes"})
+	private static <T> Entry<T>[] newTable(int length) {
+		//An array of a generic type can only be made raw; it only ever holds Entry<T>, so the cast is safe
+		return (Entry<T>[])new Entry[length];
+	}
+	synchronized T find(T x) {
+		//The object equal to x in the table, or null
+		int h=spread(x.hashCode());
+		for (Entry<T> e=table[h&(table.length-1)]; e!=null; e=e.next) {
+			if (e.hash==h) {
+				T value=e.get();
+				if (value!=null && value.equals(x))
+					return value;
+			}
+		}
+		return null;
+	}
+	synchronized T intern(T x) {
+		//The object equal to x in the table, x itself (added to the table) if there is none
+		T existing=find(x);
+		if (existing!=null)
+			return existing;
+		expunge();
+		if (size>=table.length*3/4)
+			resize();
+		int h=spread(x.hashCode());
+		int i=h&(table.length-1);
+		table[i]=new Entry<T>(x, h, table[i], queue);
+		size++;
+		return x;
+	}
+	private static int spread(int h) {
+		return h^(h>>>16);
+	}
+	@SuppressWarnings("unchecked")
+	private void expunge() {
+		//removes the entries of the objects that have been garbage collected
+		for (Object r=queue.poll(); r!=null; r=queue.poll()) {
+			Entry<T> dead=(Entry<T>)r;
+			int i=dead.hash&(table.length-1);
+			Entry<T> previous=null;
+			for (Entry<T> e=table[i]; e!=null; previous=e, e=e.next) {
+				if (e==dead) {
+					if (previous==null)
+						table[i]=e.next;
+					else
+						previous.next=e.next;
+					size--;
+					break;
+				}
+			}
+		}
+	}
+	private void resize() {
+		Entry<T>[] old=table;
+		table=newTable(old.length*2);
+		for (Entry<T> e: old) {
+			while (e!=null) {
+				Entry<T> next=e.next;
+				int i=e.hash&(table.length-1);
+				e.next=table[i];
+				table[i]=e;
+				e=next;
+			}
+		}
+	}
+}